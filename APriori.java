@@ -1,20 +1,29 @@
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 
  * A-Priori algorithm (frequent item set mining and association rule learning)
- * works with pairs and triples
+ * works with pairs and triples, mining frequent itemsets of any size
  * 
  * @author Douglas Fernando da Silva - doug.fernando@gmail.com
  * 
@@ -25,6 +34,58 @@ public class APriori {
 	private static final int MIN_SUPPORT = 100;
 	private static final int ITEMS_TO_PRINT = 20;
 	private static final boolean PRINT_PROGRESS = false;
+	private static final PairCounting PAIR_COUNTING = PairCounting.AUTO;
+	private static final PairFiltering PAIR_FILTERING = PairFiltering.NONE;
+	private static final int PCY_BUCKETS = 1 << 22; // buckets of each PCY stage
+	private static final int MULTIHASH_FUNCTIONS = 2;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors(); // threads of each pass
+	private static final long MIN_CHUNK_BYTES = 1 << 20; // no thread reads less than this
+	private static final boolean CACHE_BASKETS = true; // false reads the file in every pass
+	private static final int MAX_ITEMSET_SIZE = 3; // at least 3 for the triple rules, 0 for no limit
+	private static final Miner MINER = Miner.APRIORI;
+	private static final boolean PARALLEL_FP_GROWTH = true; // conditional trees of the items on THREADS threads
+	private static final boolean PARALLEL_ECLAT = true; // prefix classes of the items on THREADS threads
+	private static final boolean ECLAT_DIFFSETS = true; // differences of tid-lists below the single items
+
+	/**
+	 * How the second pass counts the pairs of frequent items: TRIANGULAR in
+	 * an int[] with a slot for every possible pair (4 bytes per pair),
+	 * HASH in a hash map with an entry only for the pairs found (12 bytes
+	 * per pair plus the free slots), AUTO picks the one using less memory.
+	 */
+	enum PairCounting {
+		AUTO, TRIANGULAR, HASH
+	}
+
+	/**
+	 * Filtering of the candidate pairs by hashing: NONE counts every pair of
+	 * frequent items, PCY also counts all the pairs per hash bucket in the
+	 * first pass and only counts the pairs in a frequent bucket, MULTISTAGE
+	 * adds a pass hashing the PCY candidates again with another function and
+	 * MULTIHASH splits the PCY buckets among MULTIHASH_FUNCTIONS functions.
+	 * A filtered second pass always counts in the hash map.
+	 */
+	enum PairFiltering {
+		NONE, PCY, MULTISTAGE, MULTIHASH
+	}
+
+	/**
+	 * How the frequent itemsets are found: APRIORI counts candidates in one
+	 * pass per size, FP_GROWTH builds an FP-tree in a second pass and mines
+	 * it recursively without candidates, ECLAT builds a tid-list per item in
+	 * a second pass and intersects them depth first (no PairCounting or
+	 * PairFiltering for the last two). All of them count the support of an
+	 * itemset in baskets, as the first two passes do (see Basket), so they
+	 * find the same itemsets with the same supports.
+	 */
+	enum Miner {
+		APRIORI, FP_GROWTH, ECLAT
+	}
+
+	// counts of the passes already done, shared by executePairs and executeTriples
+	private CountSingleItemsFrequencyTask singleItems;
+	private CountPairsFrequencyTask pairs;
+	private FrequentItemsets itemsets;
 
 	public static void main(String[] args) throws IOException {
 		try {
@@ -49,21 +110,16 @@ public class APriori {
 	 */
 	private void executeTriples() throws IOException {
 		// Frequent individual items
-		CountSingleItemsFrequencyTask task1 = new CountSingleItemsFrequencyTask();
-		executeTask(task1);
+		CountSingleItemsFrequencyTask task1 = countSingleItems();
 		Map<String, Integer> freqIndividualItems = task1.getIndividualItems();
 		if (PRINT_PROGRESS) System.out.println(new Date() + " - Found frequent items. Total:" + freqIndividualItems.size());
 
 		// Frequent pairs
-		CountPairsFrequencyTask task2 = new CountPairsFrequencyTask(freqIndividualItems);
-		executeTask(task2);
-		Set<Pair> frequentPairs = task2.getFrequentPairs();
+		Set<Pair> frequentPairs = frequentPairs();
 		if (PRINT_PROGRESS) System.out.println(new Date() + " - Found frequent pairs. Total:" + frequentPairs.size());
 
 		// Frequent triples
-		CountTriplesFrequencyTask task3 = new CountTriplesFrequencyTask(frequentPairs);
-		executeTask(task3);
-		Set<Triple> frequentTriples = task3.getFrequentTriple();
+		Set<Triple> frequentTriples = mineItemsets().getTriples();
 
 		if (PRINT_PROGRESS) System.out.println(new Date() + " - Found frequent triples. Total:" + frequentTriples.size());
 
@@ -79,15 +135,12 @@ public class APriori {
 	 */
 	private void executePairs() throws IOException {
 		// Frequent individual items
-		CountSingleItemsFrequencyTask task1 = new CountSingleItemsFrequencyTask();
-		executeTask(task1);
+		CountSingleItemsFrequencyTask task1 = countSingleItems();
 		Map<String, Integer> freqIndividualItems = task1.getIndividualItems();
 		if (PRINT_PROGRESS) System.out.println(new Date() + " - Found frequent items. Total:" + freqIndividualItems.size());
 
 		// Frequent pairs
-		CountPairsFrequencyTask task2 = new CountPairsFrequencyTask(freqIndividualItems);
-		executeTask(task2);
-		Set<Pair> frequentPairs = task2.getFrequentPairs();
+		Set<Pair> frequentPairs = frequentPairs();
 		if (PRINT_PROGRESS) System.out.println(new Date() + " - Found frequent pairs. Total:" + frequentPairs.size());
 		
 		// Rules from frequent pairs
@@ -98,6 +151,166 @@ public class APriori {
 		printTop5Rules(generatedPairRules.toArray(new Rule[0]));
 	}
 
+	/**
+	 * First pass, the only one reading the file when CACHE_BASKETS: the
+	 * baskets are kept in memory for the next passes
+	 */
+	private CountSingleItemsFrequencyTask countSingleItems() throws IOException {
+		if (singleItems != null)
+			return singleItems;
+
+		singleItems = new CountSingleItemsFrequencyTask(firstPassBuckets(), CACHE_BASKETS ? new BasketStore() : null);
+		executeTask(singleItems);
+		if (PRINT_PROGRESS && CACHE_BASKETS) {
+			BasketStore baskets = singleItems.getBaskets();
+			System.out.println(new Date() + " - Cached baskets: " + baskets.size() + " | bytes: " + baskets.bytes());
+		}
+		return singleItems;
+	}
+
+	/**
+	 * Second pass (after the intermediate pass of MULTISTAGE)
+	 */
+	private CountPairsFrequencyTask countPairs() throws IOException {
+		if (pairs != null)
+			return pairs;
+
+		CountSingleItemsFrequencyTask task1 = countSingleItems();
+		PairFilter filter = null;
+		PairBuckets firstStage = task1.getPairBuckets();
+		if (firstStage != null) {
+			firstStage.freeze();
+			filter = new PairFilter(firstStage);
+			if (PAIR_FILTERING == PairFiltering.MULTISTAGE) {
+				PairBuckets secondStage = new PairBuckets(PCY_BUCKETS, 1, 1);
+				executePass(new HashCandidatePairsTask(task1, filter, secondStage));
+				secondStage.freeze();
+				filter = new PairFilter(firstStage, secondStage);
+			}
+		}
+
+		pairs = new CountPairsFrequencyTask(task1, PAIR_COUNTING, filter);
+		executePass(pairs);
+		if (filter != null) {
+			System.out.println(new Date() + " - " + pairs.getFilterReport());
+		}
+		return pairs;
+	}
+
+	// frequent pairs of the second pass, or of the itemsets mined by MINER
+	private Set<Pair> frequentPairs() throws IOException {
+		return MINER == Miner.APRIORI ? countPairs().getFrequentPairs() : mineItemsets().getPairs();
+	}
+
+	/**
+	 * Frequent itemsets level by level, up to MAX_ITEMSET_SIZE items: the
+	 * candidates of size k + 1 are the joins of two frequent k-itemsets
+	 * sharing their first k - 1 items whose k-subsets are all frequent
+	 * (apriori-gen), counted in one pass with a CandidateTrie. Levels 1 and
+	 * 2 come from the first two passes.
+	 */
+	private FrequentItemsets mineItemsets() throws IOException {
+		if (itemsets != null)
+			return itemsets;
+
+		itemsets = new FrequentItemsets(countSingleItems());
+		if (MINER == Miner.FP_GROWTH) {
+			growItemsets(itemsets);
+			return itemsets;
+		}
+		if (MINER == Miner.ECLAT) {
+			intersectItemsets(itemsets);
+			return itemsets;
+		}
+		itemsets.addPairs(countPairs().getFrequentPairCounts());
+
+		ItemsetLevel frequent = itemsets.level(2);
+		while (frequent.size() > 0 && (MAX_ITEMSET_SIZE == 0 || frequent.getK() < MAX_ITEMSET_SIZE)) {
+			ItemsetLevel candidates = frequent.generateCandidates();
+			if (candidates.size() == 0)
+				break;
+
+			CountItemsetsTask task = new CountItemsetsTask(candidates, itemsets.getFrequentIndex(), itemsets.getDictionary());
+			executePass(task);
+			frequent = candidates.frequent(task.getCounts());
+			itemsets.addLevel(frequent);
+			if (PRINT_PROGRESS) System.out.println(new Date() + " - Level " + candidates.getK() + " | candidates: "
+					+ candidates.size() + " | frequent: " + frequent.size());
+		}
+
+		return itemsets;
+	}
+
+	/**
+	 * FP-Growth: the baskets, reduced to their frequent items in descending
+	 * order of support, are inserted into an FP-tree in a second pass; the
+	 * itemsets ending in each item are mined from its conditional tree
+	 */
+	private void growItemsets(FrequentItemsets itemsets) throws IOException {
+		BuildFPTreeTask task = new BuildFPTreeTask(itemsets);
+		executePass(task);
+		FPTree tree = task.getTree();
+		if (PRINT_PROGRESS) System.out.println(new Date() + " - FP-tree nodes: " + tree.size());
+
+		ItemsetCollector result = PARALLEL_FP_GROWTH ? FPGrowth.mineParallel(tree, task.getRankPositions(), THREADS)
+				: FPGrowth.mine(tree, task.getRankPositions(), 0, 1);
+		addLevels(itemsets, result);
+	}
+
+	/**
+	 * Eclat: the tid-list of every frequent item (baskets containing it) is
+	 * built in a second pass; the support of an itemset is the size of the
+	 * intersection of the tid-lists of its items, found depth first in the
+	 * class of the itemsets sharing each prefix
+	 */
+	private void intersectItemsets(FrequentItemsets itemsets) throws IOException {
+		BuildTidListsTask task = new BuildTidListsTask(itemsets);
+		executePass(task);
+		TidSet[] tidSets = task.getTidSets();
+		if (PRINT_PROGRESS) System.out.println(new Date() + " - Tid-lists of " + tidSets.length + " items | bytes: "
+				+ TidSet.bytes(tidSets));
+
+		ItemsetCollector result = PARALLEL_ECLAT ? Eclat.mineParallel(tidSets, THREADS)
+				: Eclat.mine(tidSets, 0, 1);
+		addLevels(itemsets, result);
+	}
+
+	// levels from 2 up of a miner, in lexicographic order
+	private static void addLevels(FrequentItemsets itemsets, ItemsetCollector result) {
+		for (int k = 2; k <= result.maxSize(); k++) {
+			ItemsetLevel level = result.level(k);
+			level.sort();
+			itemsets.addLevel(level);
+			if (PRINT_PROGRESS) System.out.println(new Date() + " - Level " + k + " | frequent: " + level.size());
+		}
+	}
+
+	// a pass after the first one, over the cached baskets or the file
+	private void executePass(BasketTask task) throws IOException {
+		BasketStore baskets = countSingleItems().getBaskets();
+		if (baskets != null) {
+			executeTask(task, baskets);
+		} else {
+			executeTask(task);
+		}
+	}
+
+	// bucket counts of the first pass for PAIR_FILTERING (null for NONE)
+	private static PairBuckets firstPassBuckets() {
+		if (MINER != Miner.APRIORI)
+			return null;
+
+		switch (PAIR_FILTERING) {
+		case PCY:
+		case MULTISTAGE:
+			return new PairBuckets(PCY_BUCKETS, 1, 0);
+		case MULTIHASH:
+			return new PairBuckets(PCY_BUCKETS, MULTIHASH_FUNCTIONS, 0);
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Print the top five rules based on their confidence
 	 * 
@@ -433,6 +646,10 @@ public class APriori {
 			this.support++;
 		}
 
+		public void setSupport(Integer support) {
+			this.support = support;
+		}
+
 		public Integer getSupport() {
 			return this.support;
 		}
@@ -493,72 +710,383 @@ public class APriori {
 	// COMMAND CLASSES
 
 	/**
-	 * Template for processing line by line of the input file
+	 * Template for processing line by line of the input file. The file is
+	 * split in up to THREADS byte ranges starting at a line; each range is
+	 * read by its own thread into its own partial task, and the partial
+	 * tasks are merged into task in the order of the file.
+	 */
+	public void executeTask(final Task task) throws IOException {
+		long length = new File(filePath).length();
+		int chunks = (int) Math.max(1, Math.min(THREADS, length / MIN_CHUNK_BYTES));
+		if (chunks == 1) {
+			FileReader fileReader = new FileReader(filePath);
+			BufferedReader br = new BufferedReader(fileReader);
+			String line;
+			while ((line = br.readLine()) != null) {
+				task.execute(line);
+			}
+			br.close();
+			return;
+		}
+
+		final long[] bounds = chunkBounds(chunks, length);
+		List<Callable<Task>> workers = new ArrayList<Callable<Task>>();
+		for (int c = 0; c < chunks; c++) {
+			final int chunk = c;
+			workers.add(new Callable<Task>() {
+				@Override
+				public Task call() throws IOException {
+					Task partial = task.newPartial();
+					BufferedReader br = new BufferedReader(new InputStreamReader(new RangeInputStream(
+							new RandomAccessFile(filePath, "r"), bounds[chunk], bounds[chunk + 1])), 1 << 16);
+					try {
+						String line;
+						while ((line = br.readLine()) != null) {
+							partial.execute(line);
+						}
+					} finally {
+						br.close();
+					}
+					return partial;
+				}
+			});
+		}
+
+		runPartials(task, workers);
+	}
+
+	/**
+	 * Same as executeTask(task) over the baskets cached by the first pass,
+	 * split among the threads by blocks of baskets
+	 */
+	public void executeTask(final BasketTask task, final BasketStore baskets) {
+		int blocks = baskets.blocks();
+		int chunks = Math.max(1, Math.min(THREADS, blocks));
+		if (chunks == 1) {
+			baskets.replay(0, blocks, task);
+			return;
+		}
+
+		List<Callable<Task>> workers = new ArrayList<Callable<Task>>();
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int) ((long) blocks * c / chunks);
+			final int to = (int) ((long) blocks * (c + 1) / chunks);
+			workers.add(new Callable<Task>() {
+				@Override
+				public Task call() {
+					BasketTask partial = task.newPartial();
+					baskets.replay(from, to, partial);
+					return partial;
+				}
+			});
+		}
+
+		runPartials(task, workers);
+	}
+
+	// runs every worker on its own thread and merges their partial tasks in order
+	private static void runPartials(Task task, List<Callable<Task>> workers) {
+		for (Task partial : runAll(workers)) {
+			task.merge(partial);
+		}
+	}
+
+	// runs every worker on its own thread, returning their results in order
+	static <T> List<T> runAll(List<Callable<T>> workers) {
+		List<T> result = new ArrayList<T>();
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+		try {
+			for (Future<T> partial : executor.invokeAll(workers)) {
+				result.add(partial.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return result;
+	}
+
+	// start of every chunk (and the file length at the end), each one right after a line break
+	private long[] chunkBounds(int chunks, long length) throws IOException {
+		long[] bounds = new long[chunks + 1];
+		bounds[chunks] = length;
+		RandomAccessFile file = new RandomAccessFile(filePath, "r");
+		try {
+			byte[] buffer = new byte[8192];
+			for (int c = 1; c < chunks; c++) {
+				long position = Math.max(length * c / chunks, bounds[c - 1]);
+				file.seek(position);
+				int read;
+				search: while ((read = file.read(buffer)) > 0) {
+					for (int i = 0; i < read; i++) {
+						if (buffer[i] == '\n') {
+							position += i + 1;
+							break search;
+						}
+					}
+					position += read;
+				}
+				bounds[c] = Math.min(position, length);
+			}
+		} finally {
+			file.close();
+		}
+		return bounds;
+	}
+
+	/**
+	 * Bytes [start, end) of a file
 	 */
-	public void executeTask(Task task) throws IOException {
-		FileReader fileReader = new FileReader(filePath);
-		BufferedReader br = new BufferedReader(fileReader);
-		String line;
-		while ((line = br.readLine()) != null) {
-			task.execute(line);
+	static class RangeInputStream extends InputStream {
+		private RandomAccessFile file;
+		private long remaining;
+
+		public RangeInputStream(RandomAccessFile file, long start, long end) throws IOException {
+			this.file = file;
+			this.remaining = end - start;
+			file.seek(start);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0)
+				return -1;
+
+			int b = file.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+
+			int read = file.read(b, off, (int) Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			file.close();
 		}
-		br.close();
 	}
 
+	/**
+	 * Work done for every line of the input file. To run a pass on several
+	 * threads every thread gets an empty copy of the task (newPartial), that
+	 * is merged back into the task when its lines are done (merge). A copy
+	 * shares the read-only state of the task, e.g. the item dictionary after
+	 * the first pass.
+	 */
 	interface Task {
 		void execute(String line);
+
+		Task newPartial();
+
+		void merge(Task partial);
+	}
+
+	/**
+	 * Task of the passes after the first one, which can also run over the
+	 * baskets cached by the first pass (ids of its dictionary)
+	 */
+	interface BasketTask extends Task {
+		void execute(Basket basket);
+
+		BasketTask newPartial();
 	}
 
 	/**
 	 * Task to iterate over the input file and count the support of the frequent
-	 * pairs
+	 * pairs. The frequent items are renumbered 0 .. m - 1 and their pairs
+	 * counted in a triangular array or under a packed long key (PairCounting).
 	 */
-	static class CountPairsFrequencyTask implements Task {
-		private HashMap<Pair, Pair> items;
-		private Map<String, Integer> frequentSingleItems;
+	static class CountPairsFrequencyTask implements BasketTask {
+		private static final long MAX_TRIANGLE = Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / 8);
+
+		private LongIntHashMap items; // HASH
+		private int[] triangle; // TRIANGULAR: pair (a, b), a < b, at triangleIndex(a, b)
+		private int[] frequentIndex; // item id -> position among the frequent items, -1 if not frequent
+		private int[] frequentIds; // position -> item id
+		private int[] frequentHashes; // position -> hash of the item (PairBuckets)
+		private PairFilter filter; // null without PairFiltering
+		private CountSingleItemsFrequencyTask singleItems;
+		private Basket basket = new Basket();
 		private Integer count = 0;
 
-		public CountPairsFrequencyTask(Map<String, Integer> frequentSingleItems) {
-			this.items = new HashMap<Pair, Pair>();
-			this.frequentSingleItems = frequentSingleItems;
+		public CountPairsFrequencyTask(CountSingleItemsFrequencyTask singleItems, PairCounting strategy, PairFilter filter) {
+			this.singleItems = singleItems;
+			this.filter = filter;
+			int n = singleItems.getDictionary().size();
+			this.frequentIndex = new int[n];
+			this.frequentIds = new int[n];
+			int m = 0;
+			for (int id = 0; id < n; id++) {
+				if (singleItems.isFrequent(id)) {
+					frequentIds[m] = id;
+					frequentIndex[id] = m++;
+				} else {
+					frequentIndex[id] = -1;
+				}
+			}
+			this.frequentIds = Arrays.copyOf(frequentIds, m);
+			this.frequentHashes = new int[m];
+			for (int a = 0; a < m; a++) {
+				frequentHashes[a] = singleItems.getDictionary().hash(frequentIds[a]);
+			}
+
+			long possiblePairs = (long) m * (m - 1) / 2;
+			if (filter != null) { // the triangle has a slot for the filtered pairs anyway
+				strategy = PairCounting.HASH;
+			} else if (strategy == PairCounting.AUTO) {
+				strategy = choosePairCounting(possiblePairs, singleItems.getPairOccurrences());
+			} else if (strategy == PairCounting.TRIANGULAR && possiblePairs > MAX_TRIANGLE / (THREADS + 1)) {
+				strategy = PairCounting.HASH; // the triangles of every thread do not fit
+			}
+			if (strategy == PairCounting.TRIANGULAR) {
+				this.triangle = new int[(int) possiblePairs];
+			} else {
+				this.items = new LongIntHashMap(1 << 16);
+			}
+			if (PRINT_PROGRESS) System.out.println(new Date() + " - Pair counting: " + strategy + " | frequent items: " + m);
+		}
+
+		// empty counts sharing the frequent items of parent
+		private CountPairsFrequencyTask(CountPairsFrequencyTask parent) {
+			this.singleItems = parent.singleItems;
+			this.frequentIndex = parent.frequentIndex;
+			this.frequentIds = parent.frequentIds;
+			this.frequentHashes = parent.frequentHashes;
+			this.filter = parent.filter == null ? null : parent.filter.newPartial();
+			if (parent.triangle != null) {
+				this.triangle = new int[parent.triangle.length];
+			} else {
+				this.items = new LongIntHashMap(1 << 16);
+			}
+		}
+
+		@Override
+		public BasketTask newPartial() {
+			return new CountPairsFrequencyTask(this);
+		}
+
+		@Override
+		public void merge(Task partial) {
+			CountPairsFrequencyTask other = (CountPairsFrequencyTask) partial;
+			if (triangle != null) {
+				for (int i = 0; i < triangle.length; i++) {
+					triangle[i] += other.triangle[i];
+				}
+			} else {
+				items.addAll(other.items);
+			}
+			if (filter != null) {
+				filter.merge(other.filter);
+			}
+		}
+
+		/**
+		 * 4 bytes for every possible pair against about 12 for every pair
+		 * found. The pairs found are at most the pairs of all the items in
+		 * every basket, counted in the first pass. A parallel pass holds a
+		 * triangle for each of up to THREADS chunks besides the one of the
+		 * task they are merged into, so all of them must fit.
+		 */
+		static PairCounting choosePairCounting(long possiblePairs, long pairOccurrences) {
+			if (possiblePairs > MAX_TRIANGLE / (THREADS + 1))
+				return PairCounting.HASH;
+
+			long expectedPairs = Math.min(possiblePairs, pairOccurrences);
+			return 4 * possiblePairs <= 12 * expectedPairs ? PairCounting.TRIANGULAR : PairCounting.HASH;
+		}
+
+		private int triangleIndex(int a, int b) {
+			int m = frequentIds.length;
+			return (int) ((long) a * (2 * m - a - 1) / 2 + (b - a - 1));
 		}
 
 		public Set<Pair> getFrequentPairs() {
 			Set<Pair> result = new HashSet<APriori.Pair>();
-
-			for (Entry<Pair, Pair> p : items.entrySet()) {
-				if (p.getKey().getSupport() > MIN_SUPPORT) {
-					result.add(p.getKey());
+			LongIntHashMap frequent = getFrequentPairCounts();
+			ItemDictionary dictionary = singleItems.getDictionary();
+
+			for (int slot = 0; slot < frequent.capacity(); slot++) {
+				long key = frequent.keyAt(slot);
+				if (key != LongIntHashMap.EMPTY) {
+					Pair p = new Pair(dictionary.name(pairFirst(key)), dictionary.name(pairSecond(key)));
+					p.setSupport(frequent.valueAt(slot));
+					result.add(p);
 				}
 			}
 
 			return result;
 		}
 
-		private ArrayList<Pair> generatePotentialPairs(String[] items) {
-			ArrayList<Pair> result = new ArrayList<Pair>();
+		// keys (of item ids) of the frequent pairs with their support
+		public LongIntHashMap getFrequentPairCounts() {
+			LongIntHashMap result = new LongIntHashMap(1024);
+
+			if (triangle != null) {
+				int m = frequentIds.length;
+				int index = 0;
+				for (int a = 0; a < m; a++) {
+					for (int b = a + 1; b < m; b++, index++) {
+						if (triangle[index] > MIN_SUPPORT) {
+							result.add(pairKey(frequentIds[a], frequentIds[b]), triangle[index]);
+						}
+					}
+				}
+				return result;
+			}
 
-			for (int i = 0; i < items.length; i++) {
-				for (int j = i + 1; j < items.length; j++) {
-					if (frequentSingleItems.containsKey(items[i]) && frequentSingleItems.containsKey(items[j]))
-						result.add(new Pair(items[i], items[j]));
+			for (int slot = 0; slot < items.capacity(); slot++) {
+				long key = items.keyAt(slot);
+				if (key != LongIntHashMap.EMPTY && items.valueAt(slot) > MIN_SUPPORT) {
+					result.add(pairKey(frequentIds[pairFirst(key)], frequentIds[pairSecond(key)]), items.valueAt(slot));
 				}
 			}
 
 			return result;
 		}
 
-		@SuppressWarnings("unused")
+		public String getFilterReport() {
+			return filter.report() + " | distinct pairs counted: " + items.size();
+		}
+
 		@Override
 		public void execute(String line) {
-			ArrayList<Pair> potentialPairs = generatePotentialPairs(line.split("\\s+"));
+			basket.parse(line, singleItems.getDictionary());
+			execute(basket);
+		}
 
-			for (Pair p : potentialPairs) {
-				if (items.containsKey(p)) {
-					items.get(p).increaseSupport();
-				} else {
-					p.increaseSupport();
-					items.put(p, p);
+		@SuppressWarnings("unused")
+		@Override
+		public void execute(Basket basket) {
+			basket.retain(frequentIndex);
+
+			int[] positions = basket.ids;
+			for (int i = 0; i < basket.size; i++) {
+				for (int j = i + 1; j < basket.size; j++) {
+					int a = positions[i];
+					int b = positions[j];
+					if (filter != null && !filter.accept(hashPairKey(frequentHashes[a], frequentHashes[b])))
+						continue;
+
+					if (triangle != null) {
+						triangle[a < b ? triangleIndex(a, b) : triangleIndex(b, a)]++;
+					} else {
+						items.increment(pairKey(a, b));
+					}
 				}
 			}
 
@@ -572,111 +1100,1845 @@ public class APriori {
 	}
 
 	/**
-	 * Task to iterate over the input file and count the support of the frequent
-	 * triple
+	 * Task to iterate over the input file and count the support of the
+	 * candidate itemsets of one level. Baskets are reduced to the items of
+	 * some candidate and walked down the trie of the candidates.
 	 */
-	static class CountTriplesFrequencyTask implements Task {
-		private HashMap<Triple, Triple> items;
-		private Map<Pair, Pair> frequentPairItems;
+	static class CountItemsetsTask implements BasketTask {
+		private CandidateTrie trie;
+		private int[] candidateIndex; // item id -> position among the frequent items, -1 if in no candidate
+		private int[] counts; // by candidate
+		private int k;
+		private Basket basket = new Basket();
+		private ItemDictionary dictionary;
 		private Integer count = 0;
 
-		// private static final Integer NUM_OF_LINES = 31101;
-
-		public CountTriplesFrequencyTask(Set<Pair> frequentPairItems) {
-			this.items = new HashMap<Triple, Triple>();
-			this.frequentPairItems = new HashMap<Pair, Pair>();
-			for (Pair p : frequentPairItems) {
-				this.frequentPairItems.put(p, p);
+		/**
+		 * @param frequentIndex
+		 *            item id -> position among the frequent items, -1 if not
+		 *            frequent
+		 */
+		public CountItemsetsTask(ItemsetLevel candidates, int[] frequentIndex, ItemDictionary dictionary) {
+			this.trie = new CandidateTrie(candidates);
+			this.k = candidates.getK();
+			this.counts = new int[candidates.size()];
+			this.dictionary = dictionary;
+
+			boolean[] used = new boolean[frequentIndex.length];
+			for (int i = 0; i < candidates.size(); i++) {
+				for (int p = 0; p < k; p++) {
+					used[candidates.item(i, p)] = true;
+				}
+			}
+			this.candidateIndex = new int[frequentIndex.length];
+			for (int id = 0; id < frequentIndex.length; id++) {
+				candidateIndex[id] = frequentIndex[id] >= 0 && used[frequentIndex[id]] ? frequentIndex[id] : -1;
 			}
 		}
 
-		public Set<Triple> getFrequentTriple() {
-			Set<Triple> result = new HashSet<Triple>();
+		private CountItemsetsTask(CountItemsetsTask parent) {
+			this.trie = parent.trie;
+			this.k = parent.k;
+			this.counts = new int[parent.counts.length];
+			this.dictionary = parent.dictionary;
+			this.candidateIndex = parent.candidateIndex;
+		}
 
-			for (Entry<Triple, Triple> p : items.entrySet()) {
-				if (p.getKey().getSupport() > MIN_SUPPORT) {
-					result.add(p.getKey());
-				}
+		@Override
+		public BasketTask newPartial() {
+			return new CountItemsetsTask(this);
+		}
+
+		@Override
+		public void merge(Task partial) {
+			int[] other = ((CountItemsetsTask) partial).counts;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other[i];
 			}
+		}
 
-			return result;
+		public int[] getCounts() {
+			return counts;
 		}
 
-		private ArrayList<Triple> generatePotentialTriples(String[] items) {
-			ArrayList<Triple> result = new ArrayList<Triple>();
-			
-			for (int i = 0; i < items.length; i++) {
-				for (int j = i + 1; j < items.length; j++) {
-					for (int k = j + 1; k < items.length; k++) {
-						Pair p1 = new Pair(items[i], items[j]);
-						Pair p2 = new Pair(items[j], items[k]);
-						Pair p3 = new Pair(items[i], items[k]);
-												
-						if (frequentPairItems.containsKey(p1) || frequentPairItems.containsKey(p2)
-								|| frequentPairItems.containsKey(p3)) {
-							result.add(new Triple(items[i], items[j], items[k]));
-						}
-					}
-				}
-			}
-			
-			return result;
+		@Override
+		public void execute(String line) {
+			basket.parse(line, dictionary);
+			execute(basket);
 		}
 
 		@SuppressWarnings("unused")
 		@Override
-		public void execute(String line) {
-			ArrayList<Triple> potentialTriple = generatePotentialTriples(line.split("\\s+"));
-			
-			for (Triple t : potentialTriple) {
-				if (items.containsKey(t)) {
-					items.get(t).increaseSupport();
-				} else {
-					t.increaseSupport();
-					items.put(t, t);
-				}
+		public void execute(Basket basket) {
+			basket.retain(candidateIndex);
+			basket.sortDistinct();
+			if (basket.size >= k) {
+				trie.count(basket.ids, basket.size, counts);
 			}
 
 			count++;
 
 			if (count % 1000 == 0 && PRINT_PROGRESS) {
-				System.out.println(new Date() + " - Line:" + count + " processed! - TRIPLES");
+				System.out.println(new Date() + " - Line:" + count + " processed! - LEVEL " + k);
 			}
 		}
 	}
 
 	/**
 	 * Task to iterate over the input file and count the support of the frequent
-	 * items
+	 * items. Items get their ids in the dictionary here, in order of first
+	 * appearance, and the baskets are cached for the next passes.
 	 */
 	static class CountSingleItemsFrequencyTask implements Task {
-		HashMap<String, Integer> items = new HashMap<String, Integer>();
+		private ItemDictionary dictionary = new ItemDictionary();
+		private int[] counts = new int[1024];
+		private long pairOccurrences = 0; // pairs of items in the baskets, summed over the baskets
+		private PairBuckets pairBuckets; // PCY: every pair hashed to its buckets, or null
+		private BasketStore baskets; // or null without CACHE_BASKETS
+		private Basket basket = new Basket();
+
+		public CountSingleItemsFrequencyTask() {
+			this(null, null);
+		}
+
+		public CountSingleItemsFrequencyTask(PairBuckets pairBuckets, BasketStore baskets) {
+			this.pairBuckets = pairBuckets;
+			this.baskets = baskets;
+		}
+
+		@Override
+		public Task newPartial() {
+			return new CountSingleItemsFrequencyTask(pairBuckets == null ? null : pairBuckets.newEmpty(),
+					baskets == null ? null : new BasketStore());
+		}
+
+		// the partial task numbered the items with its own dictionary
+		@Override
+		public void merge(Task partial) {
+			CountSingleItemsFrequencyTask other = (CountSingleItemsFrequencyTask) partial;
+			int[] ids = new int[other.dictionary.size()]; // id of the partial -> id here
+			for (int otherId = 0; otherId < ids.length; otherId++) {
+				int id = dictionary.id(other.dictionary.name(otherId));
+				if (id >= counts.length) {
+					counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+				}
+				counts[id] += other.counts[otherId];
+				ids[otherId] = id;
+			}
+			pairOccurrences += other.pairOccurrences;
+			if (pairBuckets != null) {
+				pairBuckets.merge(other.pairBuckets);
+			}
+			if (baskets != null) {
+				baskets.addAll(other.baskets, ids);
+			}
+		}
 
 		@Override
 		public void execute(String line) {
-			for (String token : line.split("\\s+")) {
-				Integer finalValue = 1;
+			basket.parse(line, dictionary);
+			pairOccurrences += (long) basket.size * (basket.size - 1) / 2;
+			if (baskets != null) {
+				baskets.add(basket);
+			}
 
-				if (items.containsKey(token)) {
-					Integer currentValue = items.get(token);
-					finalValue = currentValue + 1;
+			if (pairBuckets != null) {
+				int[] ids = basket.ids;
+				for (int i = 0; i < basket.size; i++) {
+					for (int j = i + 1; j < basket.size; j++) {
+						pairBuckets.add(hashPairKey(dictionary.hash(ids[i]), dictionary.hash(ids[j])));
+					}
 				}
+			}
 
-				items.put(token, finalValue);
+			for (int i = 0; i < basket.size; i++) {
+				int id = basket.ids[i];
+				if (id >= counts.length) {
+					counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+				}
+				counts[id]++;
 			}
 		}
 
 		public Map<String, Integer> getIndividualItems() {
 			HashMap<String, Integer> result = new HashMap<String, Integer>();
 
-			for (Map.Entry<String, Integer> entry : this.items.entrySet()) {
-				if (entry.getValue() > MIN_SUPPORT) {
-					result.put(entry.getKey(), entry.getValue());
+			for (int id = 0; id < dictionary.size(); id++) {
+				if (counts[id] > MIN_SUPPORT) {
+					result.put(dictionary.name(id), counts[id]);
 				}
 			}
 
 			return result;
 		}
 
+		public ItemDictionary getDictionary() {
+			return dictionary;
+		}
+
+		public int getSupport(int id) {
+			return counts[id];
+		}
+
+		public boolean isFrequent(int id) {
+			return counts[id] > MIN_SUPPORT;
+		}
+
+		public long getPairOccurrences() {
+			return pairOccurrences;
+		}
+
+		public PairBuckets getPairBuckets() {
+			return pairBuckets;
+		}
+
+		public BasketStore getBaskets() {
+			return baskets;
+		}
+
+	}
+
+	/**
+	 * Intermediate pass of MULTISTAGE: the pairs of frequent items accepted
+	 * by the previous stages are hashed again into new buckets
+	 */
+	static class HashCandidatePairsTask implements BasketTask {
+		private CountSingleItemsFrequencyTask singleItems;
+		private PairFilter filter;
+		private PairBuckets buckets;
+		private int[] frequentIds; // item id -> item id, -1 if not frequent
+		private Basket basket = new Basket();
+
+		public HashCandidatePairsTask(CountSingleItemsFrequencyTask singleItems, PairFilter filter, PairBuckets buckets) {
+			this.singleItems = singleItems;
+			this.filter = filter;
+			this.buckets = buckets;
+			this.frequentIds = new int[singleItems.getDictionary().size()];
+			for (int id = 0; id < frequentIds.length; id++) {
+				frequentIds[id] = singleItems.isFrequent(id) ? id : -1;
+			}
+		}
+
+		private HashCandidatePairsTask(HashCandidatePairsTask parent) {
+			this.singleItems = parent.singleItems;
+			this.filter = parent.filter.newPartial();
+			this.buckets = parent.buckets.newEmpty();
+			this.frequentIds = parent.frequentIds;
+		}
+
+		@Override
+		public BasketTask newPartial() {
+			return new HashCandidatePairsTask(this);
+		}
+
+		@Override
+		public void merge(Task partial) {
+			HashCandidatePairsTask other = (HashCandidatePairsTask) partial;
+			buckets.merge(other.buckets);
+			filter.merge(other.filter);
+		}
+
+		@Override
+		public void execute(String line) {
+			basket.parse(line, singleItems.getDictionary());
+			execute(basket);
+		}
+
+		@Override
+		public void execute(Basket basket) {
+			ItemDictionary dictionary = singleItems.getDictionary();
+			basket.retain(frequentIds);
+
+			int[] ids = basket.ids;
+			for (int i = 0; i < basket.size; i++) {
+				for (int j = i + 1; j < basket.size; j++) {
+					long key = hashPairKey(dictionary.hash(ids[i]), dictionary.hash(ids[j]));
+					if (filter.accept(key)) {
+						buckets.add(key);
+					}
+				}
+			}
+		}
+	}
+
+	// HASH FILTERING OF PAIRS
+
+	/**
+	 * Counts of the hashed pairs per bucket (PCY). Each hash function has
+	 * its own buckets / functions buckets (multihash). freeze keeps only a
+	 * bitmap of the frequent buckets, releasing the counts. Pairs are hashed
+	 * by the hashes of their items (hashPairKey), which do not depend on the
+	 * item ids of a thread.
+	 */
+	static class PairBuckets {
+		private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+				0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L };
+
+		private int functions;
+		private int firstSeed;
+		private int size; // buckets of each function
+		private int[] counts;
+		private long[] frequent; // bitmap, after freeze
+
+		/**
+		 * @param firstSeed
+		 *            first hash function, so that the stages of MULTISTAGE
+		 *            hash with different functions
+		 */
+		public PairBuckets(int buckets, int functions, int firstSeed) {
+			this.functions = functions;
+			this.firstSeed = firstSeed;
+			this.size = buckets / functions;
+			this.counts = new int[size * functions];
+		}
+
+		private int bucket(long key, int function) {
+			long h = (key + 1) * SEEDS[firstSeed + function];
+			h ^= h >>> 31;
+			return function * size + (int) ((h & Long.MAX_VALUE) % size);
+		}
+
+		public void add(long key) {
+			for (int f = 0; f < functions; f++) {
+				counts[bucket(key, f)]++;
+			}
+		}
+
+		// same buckets and hash functions, no counts
+		public PairBuckets newEmpty() {
+			return new PairBuckets(size * functions, functions, firstSeed);
+		}
+
+		public void merge(PairBuckets other) {
+			for (int b = 0; b < counts.length; b++) {
+				counts[b] += other.counts[b];
+			}
+		}
+
+		public void freeze() {
+			if (counts == null)
+				return;
+
+			frequent = new long[(counts.length + 63) / 64];
+			for (int b = 0; b < counts.length; b++) {
+				if (counts[b] > MIN_SUPPORT) {
+					frequent[b >>> 6] |= 1L << b;
+				}
+			}
+			counts = null;
+		}
+
+		// true if the pair is in a frequent bucket for every hash function
+		public boolean accept(long key) {
+			for (int f = 0; f < functions; f++) {
+				int b = bucket(key, f);
+				if ((frequent[b >>> 6] & (1L << b)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		public double frequentBucketFraction() {
+			long count = 0;
+			for (long bits : frequent) {
+				count += Long.bitCount(bits);
+			}
+			return (double) count / (size * functions);
+		}
+	}
+
+	/**
+	 * Stages of PairBuckets a candidate pair must pass, counting the pairs
+	 * pruned by each stage
+	 */
+	static class PairFilter {
+		private PairBuckets[] stages;
+		private long[] pruned;
+		private long checked = 0;
+
+		public PairFilter(PairBuckets... stages) {
+			this.stages = stages;
+			this.pruned = new long[stages.length];
+		}
+
+		// same stages with its own counters
+		public PairFilter newPartial() {
+			return new PairFilter(stages);
+		}
+
+		public void merge(PairFilter other) {
+			checked += other.checked;
+			for (int s = 0; s < stages.length; s++) {
+				pruned[s] += other.pruned[s];
+			}
+		}
+
+		public boolean accept(long key) {
+			checked++;
+			for (int s = 0; s < stages.length; s++) {
+				if (!stages[s].accept(key)) {
+					pruned[s]++;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// occurrences of candidate pairs (with repetitions) checked and pruned by stage
+		public String report() {
+			StringBuilder result = new StringBuilder("Pair filtering: " + PAIR_FILTERING + " | candidate pairs: " + checked);
+			for (int s = 0; s < stages.length; s++) {
+				result.append(String.format(" | pruned by stage %d: %d (frequent buckets: %.1f%%)", s + 1, pruned[s],
+						100 * stages[s].frequentBucketFraction()));
+			}
+			return result.toString();
+		}
+	}
+
+	// FREQUENT ITEMSETS
+
+	/**
+	 * Frequent itemsets by size. Items are their positions among the
+	 * frequent items (in the order of their ids), so itemsets keep the same
+	 * sorted order in every level.
+	 */
+	static class FrequentItemsets {
+		private ItemDictionary dictionary;
+		private int[] frequentIndex; // item id -> position, -1 if not frequent
+		private int[] frequentIds; // position -> item id
+		private ArrayList<ItemsetLevel> levels = new ArrayList<ItemsetLevel>();
+
+		public FrequentItemsets(CountSingleItemsFrequencyTask singleItems) {
+			this.dictionary = singleItems.getDictionary();
+			int n = dictionary.size();
+			this.frequentIndex = new int[n];
+			this.frequentIds = new int[n];
+			ItemsetLevel items = new ItemsetLevel(1);
+			int[] itemset = new int[1];
+			int m = 0;
+			for (int id = 0; id < n; id++) {
+				if (singleItems.isFrequent(id)) {
+					itemset[0] = m;
+					items.add(itemset, singleItems.getSupport(id));
+					frequentIds[m] = id;
+					frequentIndex[id] = m++;
+				} else {
+					frequentIndex[id] = -1;
+				}
+			}
+			this.frequentIds = Arrays.copyOf(frequentIds, m);
+			levels.add(items);
+		}
+
+		/**
+		 * @param frequentPairCounts
+		 *            keys (of item ids) of the frequent pairs with their
+		 *            support
+		 */
+		public void addPairs(LongIntHashMap frequentPairCounts) {
+			long[] keys = new long[frequentPairCounts.size()];
+			int n = 0;
+			for (int slot = 0; slot < frequentPairCounts.capacity(); slot++) {
+				long key = frequentPairCounts.keyAt(slot);
+				if (key != LongIntHashMap.EMPTY) {
+					keys[n++] = pairKey(frequentIndex[pairFirst(key)], frequentIndex[pairSecond(key)]);
+				}
+			}
+			Arrays.sort(keys, 0, n); // smaller position in the high half: lexicographic order
+
+			ItemsetLevel pairs = new ItemsetLevel(2);
+			int[] itemset = new int[2];
+			for (int i = 0; i < n; i++) {
+				itemset[0] = pairFirst(keys[i]);
+				itemset[1] = pairSecond(keys[i]);
+				pairs.add(itemset, frequentPairCounts.get(pairKey(frequentIds[itemset[0]], frequentIds[itemset[1]])));
+			}
+			levels.add(pairs);
+		}
+
+		public void addLevel(ItemsetLevel level) {
+			levels.add(level);
+		}
+
+		// itemsets of k items, empty if not mined
+		public ItemsetLevel level(int k) {
+			return k <= levels.size() ? levels.get(k - 1) : new ItemsetLevel(k);
+		}
+
+		public Set<Pair> getPairs() {
+			Set<Pair> result = new HashSet<Pair>();
+			ItemsetLevel pairs = level(2);
+			for (int i = 0; i < pairs.size(); i++) {
+				Pair p = new Pair(name(pairs.item(i, 0)), name(pairs.item(i, 1)));
+				p.setSupport(pairs.support(i));
+				result.add(p);
+			}
+			return result;
+		}
+
+		public Set<Triple> getTriples() {
+			Set<Triple> result = new HashSet<Triple>();
+			ItemsetLevel triples = level(3);
+			for (int i = 0; i < triples.size(); i++) {
+				Triple t = new Triple(name(triples.item(i, 0)), name(triples.item(i, 1)), name(triples.item(i, 2)));
+				t.setSupport(triples.support(i));
+				result.add(t);
+			}
+			return result;
+		}
+
+		public String name(int position) {
+			return dictionary.name(frequentIds[position]);
+		}
+
+		public int[] getFrequentIndex() {
+			return frequentIndex;
+		}
+
+		public int getSupport(int position) {
+			return levels.get(0).support(position);
+		}
+
+		public ItemDictionary getDictionary() {
+			return dictionary;
+		}
+	}
+
+	/**
+	 * Itemsets of k items in lexicographic order, stored flat (k ints per
+	 * itemset) with their support
+	 */
+	static class ItemsetLevel {
+		private int k;
+		private int[] items;
+		private int[] supports;
+		private int size = 0;
+
+		public ItemsetLevel(int k) {
+			this.k = k;
+			this.items = new int[k * 16];
+			this.supports = new int[16];
+		}
+
+		// itemset[0 .. k), after the itemsets added so far
+		public void add(int[] itemset, int support) {
+			if (size == supports.length) {
+				supports = Arrays.copyOf(supports, size * 2);
+				items = Arrays.copyOf(items, size * 2 * k);
+			}
+			System.arraycopy(itemset, 0, items, size * k, k);
+			supports[size++] = support;
+		}
+
+		public int item(int i, int position) {
+			return items[i * k + position];
+		}
+
+		public void addAll(ItemsetLevel other) {
+			int[] itemset = new int[k];
+			for (int i = 0; i < other.size; i++) {
+				System.arraycopy(other.items, i * k, itemset, 0, k);
+				add(itemset, other.supports[i]);
+			}
+		}
+
+		// lexicographic order, for itemsets added in any order
+		public void sort() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					for (int p = 0; p < k; p++) {
+						int result = items[a * k + p] - items[b * k + p];
+						if (result != 0)
+							return result;
+					}
+					return 0;
+				}
+			});
+
+			int[] sortedItems = new int[items.length];
+			int[] sortedSupports = new int[supports.length];
+			for (int i = 0; i < size; i++) {
+				System.arraycopy(items, order[i] * k, sortedItems, i * k, k);
+				sortedSupports[i] = supports[order[i]];
+			}
+			items = sortedItems;
+			supports = sortedSupports;
+		}
+
+		public int support(int i) {
+			return supports[i];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getK() {
+			return k;
+		}
+
+		// binary search of the itemset[0 .. k)
+		public boolean contains(int[] itemset) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int result = compare(mid, itemset);
+				if (result < 0) {
+					low = mid + 1;
+				} else if (result > 0) {
+					high = mid - 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int compare(int i, int[] itemset) {
+			for (int p = 0; p < k; p++) {
+				int item = items[i * k + p];
+				if (item != itemset[p])
+					return item < itemset[p] ? -1 : 1;
+			}
+			return 0;
+		}
+
+		/**
+		 * apriori-gen: joins the itemsets with the same first k - 1 items and
+		 * prunes the joins with an infrequent k-subset. The candidates have
+		 * support 0 and come out in lexicographic order.
+		 */
+		public ItemsetLevel generateCandidates() {
+			ItemsetLevel result = new ItemsetLevel(k + 1);
+			int[] candidate = new int[k + 1];
+			int[] subset = new int[k];
+
+			for (int i = 0; i < size; i++) {
+				for (int j = i + 1; j < size && samePrefix(i, j); j++) {
+					System.arraycopy(items, i * k, candidate, 0, k);
+					candidate[k] = items[j * k + k - 1];
+
+					// the subsets without the item k - 1 or k are i and j
+					boolean frequent = true;
+					for (int drop = 0; drop < k - 1 && frequent; drop++) {
+						System.arraycopy(candidate, 0, subset, 0, drop);
+						System.arraycopy(candidate, drop + 1, subset, drop, k - drop);
+						frequent = contains(subset);
+					}
+					if (frequent) {
+						result.add(candidate, 0);
+					}
+				}
+			}
+
+			return result;
+		}
+
+		// same first k - 1 items
+		private boolean samePrefix(int i, int j) {
+			for (int p = 0; p < k - 1; p++) {
+				if (items[i * k + p] != items[j * k + p])
+					return false;
+			}
+			return true;
+		}
+
+		// the itemsets with counts[i] > MIN_SUPPORT, with those counts as support
+		public ItemsetLevel frequent(int[] counts) {
+			ItemsetLevel result = new ItemsetLevel(k);
+			int[] itemset = new int[k];
+			for (int i = 0; i < size; i++) {
+				if (counts[i] > MIN_SUPPORT) {
+					System.arraycopy(items, i * k, itemset, 0, k);
+					result.add(itemset, counts[i]);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Prefix tree of the candidates of one level: a path from the root is a
+	 * sorted itemset and the leaves (depth k) hold the index of their
+	 * candidate. The children of a node are contiguous and sorted by item.
+	 */
+	static class CandidateTrie {
+		private int k;
+		private int[] items = new int[1024]; // item of the node
+		private int[] first = new int[1024]; // first child, or candidate index of a leaf
+		private int[] end = new int[1024]; // after the last child
+		private int nodes = 1; // root is 0
+
+		public CandidateTrie(ItemsetLevel candidates) {
+			this.k = candidates.getK();
+			build(0, candidates, 0, candidates.size(), 0);
+		}
+
+		// node of depth for the candidates [from, to), which share their first depth items
+		private void build(int node, ItemsetLevel candidates, int from, int to, int depth) {
+			if (depth == k) {
+				first[node] = from;
+				return;
+			}
+
+			int start = nodes;
+			for (int i = from; i < to; i = next(candidates, i, to, depth)) {
+				newNode(candidates.item(i, depth));
+			}
+			first[node] = start;
+			end[node] = nodes;
+
+			int child = start;
+			for (int i = from; i < to; child++) {
+				int j = next(candidates, i, to, depth);
+				build(child, candidates, i, j, depth + 1);
+				i = j;
+			}
+		}
+
+		// first candidate after i with another item at depth
+		private static int next(ItemsetLevel candidates, int i, int to, int depth) {
+			int item = candidates.item(i, depth);
+			int j = i + 1;
+			while (j < to && candidates.item(j, depth) == item) {
+				j++;
+			}
+			return j;
+		}
+
+		private void newNode(int item) {
+			if (nodes == items.length) {
+				items = Arrays.copyOf(items, nodes * 2);
+				first = Arrays.copyOf(first, nodes * 2);
+				end = Arrays.copyOf(end, nodes * 2);
+			}
+			items[nodes++] = item;
+		}
+
+		/**
+		 * Adds 1 to counts of every candidate in the basket (sorted distinct
+		 * items)
+		 */
+		public void count(int[] basket, int size, int[] counts) {
+			count(0, 0, basket, 0, size, counts);
+		}
+
+		private void count(int node, int depth, int[] basket, int start, int size, int[] counts) {
+			if (depth == k) {
+				counts[first[node]]++;
+				return;
+			}
+
+			// merges the children with the basket, leaving items for the rest of the path
+			int child = first[node];
+			int last = size - (k - depth);
+			for (int i = start; child < end[node] && i <= last;) {
+				if (items[child] < basket[i]) {
+					child++;
+				} else if (items[child] > basket[i]) {
+					i++;
+				} else {
+					count(child, depth + 1, basket, i + 1, size, counts);
+					child++;
+					i++;
+				}
+			}
+		}
+	}
+
+	// FP-GROWTH
+
+	/**
+	 * Task to iterate over the input file and insert the frequent items of
+	 * every basket into an FP-tree. Items are ranked by descending support
+	 * (rank 0 is the most frequent), the order of the paths in the tree.
+	 */
+	static class BuildFPTreeTask implements BasketTask {
+		private FPTree tree;
+		private int[] rankIndex; // item id -> rank, -1 if not frequent
+		private int[] rankPositions; // rank -> position among the frequent items
+		private ItemDictionary dictionary;
+		private Basket basket = new Basket();
+
+		public BuildFPTreeTask(final FrequentItemsets itemsets) {
+			this.dictionary = itemsets.getDictionary();
+			int[] frequentIndex = itemsets.getFrequentIndex();
+			int m = itemsets.level(1).size();
+
+			Integer[] byRank = new Integer[m];
+			for (int position = 0; position < m; position++) {
+				byRank[position] = position;
+			}
+			Arrays.sort(byRank, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int result = itemsets.getSupport(b) - itemsets.getSupport(a);
+					return result != 0 ? result : a - b;
+				}
+			});
+
+			this.rankPositions = new int[m];
+			int[] positionRanks = new int[m];
+			for (int rank = 0; rank < m; rank++) {
+				rankPositions[rank] = byRank[rank];
+				positionRanks[byRank[rank]] = rank;
+			}
+			this.rankIndex = new int[frequentIndex.length];
+			for (int id = 0; id < frequentIndex.length; id++) {
+				rankIndex[id] = frequentIndex[id] >= 0 ? positionRanks[frequentIndex[id]] : -1;
+			}
+			this.tree = new FPTree(m);
+		}
+
+		private BuildFPTreeTask(BuildFPTreeTask parent) {
+			this.dictionary = parent.dictionary;
+			this.rankIndex = parent.rankIndex;
+			this.rankPositions = parent.rankPositions;
+			this.tree = new FPTree(rankPositions.length);
+		}
+
+		@Override
+		public BasketTask newPartial() {
+			return new BuildFPTreeTask(this);
+		}
+
+		@Override
+		public void merge(Task partial) {
+			tree.addAll(((BuildFPTreeTask) partial).tree);
+		}
+
+		@Override
+		public void execute(String line) {
+			basket.parse(line, dictionary);
+			execute(basket);
+		}
+
+		@Override
+		public void execute(Basket basket) {
+			basket.retain(rankIndex);
+			basket.sortDistinct(); // the path goes in ascending rank; the items of a basket are already distinct
+			if (basket.size > 0) {
+				tree.insert(basket.ids, basket.size, 1);
+			}
+		}
+
+		public FPTree getTree() {
+			return tree;
+		}
+
+		public int[] getRankPositions() {
+			return rankPositions;
+		}
+	}
+
+	/**
+	 * Prefix tree of baskets with counts, in flat arrays: every node has its
+	 * item, the count of the baskets through it, its parent and its first
+	 * child / next sibling. The nodes of an item are linked from head[item]
+	 * through nextSameItem. The items of the full tree are the ranks; a
+	 * conditional tree numbers only the items of its pattern base, in the
+	 * same order, and keeps their ranks.
+	 */
+	static class FPTree {
+		private static final int INITIAL_NODES = 1024;
+
+		private int[] item;
+		private int[] count;
+		private int[] parent;
+		private int[] firstChild;
+		private int[] nextSibling;
+		private int[] nextSameItem;
+		private int nodes = 1; // root is 0
+		private int[] head; // by item, -1 for none
+		private int[] support; // by item
+		private int[] ranks; // by item, null when the items are the ranks
+
+		public FPTree(int items) {
+			this(items, INITIAL_NODES);
+		}
+
+		private FPTree(int items, int capacity) {
+			this.item = new int[capacity];
+			this.count = new int[capacity];
+			this.parent = new int[capacity];
+			this.firstChild = new int[capacity];
+			this.nextSibling = new int[capacity];
+			this.nextSameItem = new int[capacity];
+			this.head = new int[items];
+			this.support = new int[items];
+			Arrays.fill(head, -1);
+			firstChild[0] = -1;
+		}
+
+		/**
+		 * Adds count baskets with the items path[0 .. length), in ascending
+		 * order of rank
+		 */
+		public void insert(int[] path, int length, int count) {
+			int node = 0;
+			for (int i = 0; i < length; i++) {
+				node = child(node, path[i]);
+				this.count[node] += count;
+				support[path[i]] += count;
+			}
+		}
+
+		// child of node with the item, created if missing
+		private int child(int node, int childItem) {
+			for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+				if (item[c] == childItem)
+					return c;
+			}
+
+			if (nodes == item.length) {
+				int capacity = nodes * 2;
+				item = Arrays.copyOf(item, capacity);
+				count = Arrays.copyOf(count, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				nextSibling = Arrays.copyOf(nextSibling, capacity);
+				nextSameItem = Arrays.copyOf(nextSameItem, capacity);
+			}
+			int c = nodes++;
+			item[c] = childItem;
+			count[c] = 0;
+			parent[c] = node;
+			firstChild[c] = -1;
+			nextSibling[c] = firstChild[node];
+			firstChild[node] = c;
+			nextSameItem[c] = head[childItem];
+			head[childItem] = c;
+			return c;
+		}
+
+		// the baskets of other; a parent always comes before its children
+		public void addAll(FPTree other) {
+			int[] mapped = new int[other.nodes];
+			for (int node = 1; node < other.nodes; node++) {
+				mapped[node] = child(mapped[other.parent[node]], other.item[node]);
+				count[mapped[node]] += other.count[node];
+				support[other.item[node]] += other.count[node];
+			}
+		}
+
+		/**
+		 * Tree of the prefix paths of target (its conditional pattern base),
+		 * keeping only the items frequent among them, numbered 0 .. k - 1.
+		 * The scratch arrays (at least items() long) are reused by every
+		 * call: local must be all 0 and is left so, only the entries of the
+		 * items found are touched.
+		 */
+		public FPTree conditional(int target, int[] local, int[] found, int[] path) {
+			int foundItems = 0;
+			int baseNodes = 0;
+			for (int node = head[target]; node >= 0; node = nextSameItem[node]) {
+				for (int p = parent[node]; p > 0; p = parent[p]) {
+					if (local[item[p]] == 0) {
+						found[foundItems++] = item[p];
+					}
+					local[item[p]] += count[node];
+					baseNodes++;
+				}
+			}
+
+			// the frequent items keep their order under their new numbers (local holds number + 1 from here)
+			Arrays.sort(found, 0, foundItems);
+			int k = 0;
+			for (int i = 0; i < foundItems; i++) {
+				int baseItem = found[i];
+				if (local[baseItem] > MIN_SUPPORT) {
+					found[k] = baseItem;
+					local[baseItem] = ++k;
+				} else {
+					local[baseItem] = 0;
+				}
+			}
+
+			FPTree result = new FPTree(k, Math.min(INITIAL_NODES, baseNodes + 1));
+			result.ranks = new int[k];
+			for (int i = 0; i < k; i++) {
+				result.ranks[i] = rank(found[i]);
+			}
+			for (int node = head[target]; node >= 0 && k > 0; node = nextSameItem[node]) {
+				int length = 0;
+				for (int p = parent[node]; p > 0; p = parent[p]) {
+					if (local[item[p]] > 0) {
+						path[length++] = local[item[p]] - 1;
+					}
+				}
+				// the ranks were collected from the leaf up
+				for (int i = 0, j = length - 1; i < j; i++, j--) {
+					int temp = path[i];
+					path[i] = path[j];
+					path[j] = temp;
+				}
+				if (length > 0) {
+					result.insert(path, length, count[node]);
+				}
+			}
+
+			for (int i = 0; i < k; i++) {
+				local[found[i]] = 0;
+			}
+			return result;
+		}
+
+		public int items() {
+			return head.length;
+		}
+
+		// rank of the item in the full tree
+		public int rank(int item) {
+			return ranks == null ? item : ranks[item];
+		}
+
+		public int support(int item) {
+			return support[item];
+		}
+
+		public int size() {
+			return nodes - 1;
+		}
+	}
+
+	/**
+	 * Recursive mining of an FP-tree: every frequent item of a tree extends
+	 * the current suffix, and the suffix is grown again in the conditional
+	 * tree of that item
+	 */
+	static class FPGrowth {
+		private int[] rankPositions;
+		private ItemsetCollector result = new ItemsetCollector();
+		private int[] suffix; // ranks
+		private int[] itemset; // suffix as positions
+		// scratch of FPTree.conditional, shared by the whole recursion
+		private int[] local;
+		private int[] found;
+		private int[] path;
+
+		private FPGrowth(int[] rankPositions) {
+			this.rankPositions = rankPositions;
+			this.suffix = new int[rankPositions.length];
+			this.itemset = new int[rankPositions.length];
+			this.local = new int[rankPositions.length];
+			this.found = new int[rankPositions.length];
+			this.path = new int[rankPositions.length];
+		}
+
+		/**
+		 * Mines the itemsets of tree ending in the items first, first + step,
+		 * first + 2 * step ...
+		 */
+		public static ItemsetCollector mine(FPTree tree, int[] rankPositions, int first, int step) {
+			FPGrowth growth = new FPGrowth(rankPositions);
+			for (int item = first; item < tree.items(); item += step) {
+				growth.grow(tree, item, 0);
+			}
+			return growth.result;
+		}
+
+		/**
+		 * The items of the tree spread among the threads, every thread
+		 * mining their conditional trees
+		 */
+		public static ItemsetCollector mineParallel(final FPTree tree, final int[] rankPositions, int threads) {
+			if (threads == 1)
+				return mine(tree, rankPositions, 0, 1);
+
+			List<Callable<ItemsetCollector>> workers = new ArrayList<Callable<ItemsetCollector>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				workers.add(new Callable<ItemsetCollector>() {
+					@Override
+					public ItemsetCollector call() {
+						return mine(tree, rankPositions, first, step);
+					}
+				});
+			}
+
+			ItemsetCollector result = new ItemsetCollector();
+			for (ItemsetCollector partial : runAll(workers)) {
+				result.addAll(partial);
+			}
+			return result;
+		}
+
+		// item added to the suffix[0 .. length) found in tree
+		private void grow(FPTree tree, int item, int length) {
+			if (tree.support(item) <= MIN_SUPPORT)
+				return;
+
+			suffix[length] = tree.rank(item);
+			add(length + 1, tree.support(item));
+
+			if (MAX_ITEMSET_SIZE != 0 && length + 1 >= MAX_ITEMSET_SIZE)
+				return;
+
+			FPTree conditional = tree.conditional(item, local, found, path);
+			if (conditional.size() == 0)
+				return;
+
+			for (int other = 0; other < conditional.items(); other++) {
+				grow(conditional, other, length + 1);
+			}
+		}
+
+		// suffix[0 .. k) as positions
+		private void add(int k, int support) {
+			for (int i = 0; i < k; i++) {
+				itemset[i] = rankPositions[suffix[i]];
+			}
+			result.add(itemset, k, support);
+		}
+	}
+
+	// ECLAT
+
+	/**
+	 * Task to iterate over the input file and list, for every frequent item,
+	 * the numbers (tids) of the baskets containing it. A partial task numbers
+	 * its baskets from 0 and is shifted after the baskets already merged.
+	 */
+	static class BuildTidListsTask implements BasketTask {
+		private int[] frequentIndex; // item id -> position, -1 if not frequent
+		private int[][] tids; // by position, ascending
+		private int[] sizes; // by position
+		private int baskets = 0;
+		private ItemDictionary dictionary;
+		private Basket basket = new Basket();
+
+		public BuildTidListsTask(FrequentItemsets itemsets) {
+			this(itemsets.getFrequentIndex(), itemsets.level(1).size(), itemsets.getDictionary());
+		}
+
+		private BuildTidListsTask(int[] frequentIndex, int items, ItemDictionary dictionary) {
+			this.frequentIndex = frequentIndex;
+			this.dictionary = dictionary;
+			this.tids = new int[items][];
+			this.sizes = new int[items];
+			for (int i = 0; i < items; i++) {
+				tids[i] = new int[16];
+			}
+		}
+
+		@Override
+		public BasketTask newPartial() {
+			return new BuildTidListsTask(frequentIndex, tids.length, dictionary);
+		}
+
+		@Override
+		public void merge(Task partial) {
+			BuildTidListsTask other = (BuildTidListsTask) partial;
+			for (int i = 0; i < tids.length; i++) {
+				for (int t = 0; t < other.sizes[i]; t++) {
+					add(i, baskets + other.tids[i][t]);
+				}
+			}
+			baskets += other.baskets;
+		}
+
+		@Override
+		public void execute(String line) {
+			basket.parse(line, dictionary);
+			execute(basket);
+		}
+
+		@Override
+		public void execute(Basket basket) {
+			basket.retain(frequentIndex);
+			basket.sortDistinct();
+			for (int i = 0; i < basket.size; i++) {
+				add(basket.ids[i], baskets);
+			}
+			baskets++;
+		}
+
+		private void add(int item, int tid) {
+			if (sizes[item] == tids[item].length) {
+				tids[item] = Arrays.copyOf(tids[item], sizes[item] * 2);
+			}
+			tids[item][sizes[item]++] = tid;
+		}
+
+		// by position among the frequent items
+		public TidSet[] getTidSets() {
+			TidSet[] result = new TidSet[tids.length];
+			for (int i = 0; i < tids.length; i++) {
+				result[i] = TidSet.of(tids[i], sizes[i]);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Set of tids as a bitset, keeping only the words between the first and
+	 * the last one with a bit set. The size is kept to skip counting bits.
+	 */
+	static class TidSet {
+		private long[] words;
+		private int offset; // words[0] holds the tids 64 * offset .. 64 * offset + 63
+		private int size;
+
+		private TidSet(long[] words, int offset, int size) {
+			this.words = words;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		// tids[0 .. count), ascending
+		public static TidSet of(int[] tids, int count) {
+			if (count == 0)
+				return new TidSet(new long[0], 0, 0);
+
+			int offset = tids[0] >>> 6;
+			long[] words = new long[(tids[count - 1] >>> 6) - offset + 1];
+			for (int i = 0; i < count; i++) {
+				words[(tids[i] >>> 6) - offset] |= 1L << tids[i];
+			}
+			return new TidSet(words, offset, count);
+		}
+
+		public TidSet and(TidSet other) {
+			int from = Math.max(offset, other.offset);
+			int to = Math.min(offset + words.length, other.offset + other.words.length);
+			if (from >= to)
+				return new TidSet(new long[0], 0, 0);
+
+			long[] result = new long[to - from];
+			for (int w = from; w < to; w++) {
+				result[w - from] = words[w - offset] & other.words[w - other.offset];
+			}
+			return trimmed(result, from);
+		}
+
+		// tids of this set not in other
+		public TidSet andNot(TidSet other) {
+			long[] result = words.clone();
+			int from = Math.max(offset, other.offset);
+			int to = Math.min(offset + words.length, other.offset + other.words.length);
+			for (int w = from; w < to; w++) {
+				result[w - offset] &= ~other.words[w - other.offset];
+			}
+			return trimmed(result, offset);
+		}
+
+		private static TidSet trimmed(long[] words, int offset) {
+			int first = 0;
+			int last = words.length - 1;
+			while (first <= last && words[first] == 0) {
+				first++;
+			}
+			while (last >= first && words[last] == 0) {
+				last--;
+			}
+
+			int size = 0;
+			for (int w = first; w <= last; w++) {
+				size += Long.bitCount(words[w]);
+			}
+			if (first == 0 && last == words.length - 1)
+				return new TidSet(words, offset, size);
+
+			return new TidSet(Arrays.copyOfRange(words, first, last + 1), offset + first, size);
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public static long bytes(TidSet[] sets) {
+			long result = 0;
+			for (TidSet set : sets) {
+				result += 8L * set.words.length;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Depth first Eclat. A class holds the itemsets sharing a prefix, each
+	 * one as its last item with its tids. With ECLAT_DIFFSETS the classes
+	 * below the single items hold diffsets instead: d(PX) = t(P) - t(PX),
+	 * so d(PXY) = d(PY) - d(PX) and support(PXY) = support(PX) - |d(PXY)|.
+	 */
+	static class Eclat {
+		private ItemsetCollector result = new ItemsetCollector();
+		private int[] prefix;
+
+		private Eclat(int items) {
+			this.prefix = new int[items];
+		}
+
+		/**
+		 * Mines the classes of the items first, first + step, first + 2 *
+		 * step ... of the single items ordered by ascending support
+		 */
+		public static ItemsetCollector mine(TidSet[] tidSets, int first, int step) {
+			Member[] items = singleItems(tidSets);
+			Eclat eclat = new Eclat(items.length);
+			for (int i = first; i < items.length; i += step) {
+				eclat.expand(items, i, 0, false);
+			}
+			return eclat.result;
+		}
+
+		/**
+		 * The classes of the single items spread among the threads
+		 */
+		public static ItemsetCollector mineParallel(final TidSet[] tidSets, int threads) {
+			if (threads == 1)
+				return mine(tidSets, 0, 1);
+
+			List<Callable<ItemsetCollector>> workers = new ArrayList<Callable<ItemsetCollector>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				workers.add(new Callable<ItemsetCollector>() {
+					@Override
+					public ItemsetCollector call() {
+						return mine(tidSets, first, step);
+					}
+				});
+			}
+
+			ItemsetCollector result = new ItemsetCollector();
+			for (ItemsetCollector partial : runAll(workers)) {
+				result.addAll(partial);
+			}
+			return result;
+		}
+
+		// ascending support: the classes of the first items are the largest but with the shortest lists
+		// the support of an item is the size of its tid-list, in the unit of the diffsets below it
+		private static Member[] singleItems(TidSet[] tidSets) {
+			Member[] result = new Member[tidSets.length];
+			for (int i = 0; i < tidSets.length; i++) {
+				result[i] = new Member(i, tidSets[i], tidSets[i].size());
+			}
+			Arrays.sort(result, new Comparator<Member>() {
+				@Override
+				public int compare(Member a, Member b) {
+					return a.support != b.support ? a.support - b.support : a.item - b.item;
+				}
+			});
+			return result;
+		}
+
+		/**
+		 * Emits the itemset prefix[0 .. length) + cls[i] and mines the class
+		 * of its extensions by the next members of cls
+		 */
+		private void expand(Member[] cls, int i, int length, boolean diffsets) {
+			Member x = cls[i];
+			prefix[length] = x.item;
+			if (length > 0) {
+				result.add(prefix, length + 1, x.support);
+			}
+			if (MAX_ITEMSET_SIZE != 0 && length + 1 >= MAX_ITEMSET_SIZE)
+				return;
+
+			Member[] next = new Member[cls.length - i - 1];
+			int size = 0;
+			for (int j = i + 1; j < cls.length; j++) {
+				Member y = cls[j];
+				TidSet tids;
+				int support;
+				if (diffsets) {
+					tids = y.tids.andNot(x.tids);
+					support = x.support - tids.size();
+				} else if (ECLAT_DIFFSETS) {
+					tids = x.tids.andNot(y.tids);
+					support = x.support - tids.size();
+				} else {
+					tids = x.tids.and(y.tids);
+					support = tids.size();
+				}
+				if (support > MIN_SUPPORT) {
+					next[size++] = new Member(y.item, tids, support);
+				}
+			}
+
+			next = Arrays.copyOf(next, size);
+			for (int j = 0; j < size; j++) {
+				expand(next, j, length + 1, diffsets || ECLAT_DIFFSETS);
+			}
+		}
+
+		// itemset of a class: its last item with its tids (or diffset) and support
+		static class Member {
+			int item;
+			TidSet tids;
+			int support;
+
+			public Member(int item, TidSet tids, int support) {
+				this.item = item;
+				this.tids = tids;
+				this.support = support;
+			}
+		}
+	}
+
+	/**
+	 * Itemsets of 2 or more items found by a miner, by size, as positions
+	 * among the frequent items in any order
+	 */
+	static class ItemsetCollector {
+		private ArrayList<ItemsetLevel> levels = new ArrayList<ItemsetLevel>();
+		private int[] sorted = new int[16];
+
+		// itemset[0 .. k), sorted here
+		public void add(int[] itemset, int k, int support) {
+			if (k < 2)
+				return;
+
+			if (sorted.length < k) {
+				sorted = new int[k * 2];
+			}
+			System.arraycopy(itemset, 0, sorted, 0, k);
+			Arrays.sort(sorted, 0, k);
+			level(k).add(sorted, support);
+		}
+
+		public ItemsetLevel level(int k) {
+			while (levels.size() < k - 1) {
+				levels.add(new ItemsetLevel(levels.size() + 2));
+			}
+			return levels.get(k - 2);
+		}
+
+		// largest itemsets found, 1 if none
+		public int maxSize() {
+			return levels.size() + 1;
+		}
+
+		public void addAll(ItemsetCollector other) {
+			for (int k = 2; k <= other.maxSize(); k++) {
+				level(k).addAll(other.level(k));
+			}
+		}
+	}
+
+	// ITEM IDS
+
+	/**
+	 * Pair of item ids (in any order) as a long: smaller id in the high half
+	 */
+	static long pairKey(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	/**
+	 * Unordered pair of item hashes (ItemDictionary.hash) as a long
+	 */
+	static long hashPairKey(int a, int b) {
+		return a < b ? ((long) a << 32) | (b & 0xFFFFFFFFL) : ((long) b << 32) | (a & 0xFFFFFFFFL);
+	}
+
+	static int pairFirst(long key) {
+		return (int) (key >>> 32);
+	}
+
+	static int pairSecond(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Dense int ids for the items of the input file. Items are looked up
+	 * straight from the characters of the line (open addressing on id + 1),
+	 * so only a new item creates a String.
+	 */
+	static class ItemDictionary {
+		private ArrayList<String> names = new ArrayList<String>();
+		private int[] itemHashes = new int[1024]; // id -> String.hashCode of the item
+		private int[] table = new int[1024]; // id + 1, 0 for an empty slot
+		private int[] hashes = new int[1024]; // hash of the item in the slot
+
+		public int id(String item) {
+			return id(item, 0, item.length());
+		}
+
+		// id of the item line[start .. end), assigning the next one to a new item
+		public int id(String line, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + line.charAt(i);
+			}
+
+			int mask = table.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (table[slot] != 0) {
+				if (hashes[slot] == hash) {
+					String name = names.get(table[slot] - 1);
+					if (name.length() == end - start && line.regionMatches(start, name, 0, end - start))
+						return table[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			int id = names.size();
+			names.add(line.substring(start, end));
+			if (id == itemHashes.length) {
+				itemHashes = Arrays.copyOf(itemHashes, id * 2);
+			}
+			itemHashes[id] = hash;
+			table[slot] = id + 1;
+			hashes[slot] = hash;
+			if (names.size() * 2 > table.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		private void rehash() {
+			int[] oldTable = table;
+			int[] oldHashes = hashes;
+			table = new int[oldTable.length * 2];
+			hashes = new int[table.length];
+			int mask = table.length - 1;
+			for (int i = 0; i < oldTable.length; i++) {
+				if (oldTable[i] != 0) {
+					int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+					while (table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = oldTable[i];
+					hashes[slot] = oldHashes[i];
+				}
+			}
+		}
+
+		public String name(int id) {
+			return names.get(id);
+		}
+
+		// same value for the same item in any dictionary
+		public int hash(int id) {
+			return itemHashes[id];
+		}
+
+		public int size() {
+			return names.size();
+		}
+	}
+
+	/**
+	 * Item ids of one line of the input file, reusing the same array for
+	 * every line. A basket is a set: an item repeated in the line counts
+	 * once, so every pass and every miner counts the support of an itemset
+	 * as the number of baskets containing it.
+	 */
+	static class Basket {
+		int[] ids = new int[64];
+		int size;
+
+		// distinct ids of the items of the line, sorted
+		public void parse(String line, ItemDictionary dictionary) {
+			size = 0;
+			int length = line.length();
+			int start = 0;
+			while (start < length) {
+				while (start < length && Character.isWhitespace(line.charAt(start))) {
+					start++;
+				}
+				int end = start;
+				while (end < length && !Character.isWhitespace(line.charAt(end))) {
+					end++;
+				}
+				if (end > start) {
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, size * 2);
+					}
+					ids[size++] = dictionary.id(line, start, end);
+				}
+				start = end;
+			}
+			sortDistinct();
+		}
+
+		// sorts the ids, dropping repeated ones
+		public void sortDistinct() {
+			Arrays.sort(ids, 0, size);
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				if (kept == 0 || ids[kept - 1] != ids[i]) {
+					ids[kept++] = ids[i];
+				}
+			}
+			size = kept;
+		}
+
+		// replaces every id by index[id], dropping the ids whose index is -1
+		public void retain(int[] index) {
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				int mapped = index[ids[i]];
+				if (mapped >= 0) {
+					ids[kept++] = mapped;
+				}
+			}
+			size = kept;
+		}
+	}
+
+	/**
+	 * Baskets of the input file kept in memory after the first pass. Each
+	 * basket is its number of items followed by its sorted item ids as
+	 * deltas from the previous id, all as varints (7 bits per byte), in
+	 * blocks of BLOCK_BASKETS baskets so that threads replay whole blocks.
+	 */
+	static class BasketStore {
+		private static final int BLOCK_BASKETS = 4096;
+
+		private ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+		private byte[] current = new byte[1 << 16]; // block being written
+		private int position = 0;
+		private int basketsInCurrent = 0;
+		private int size = 0;
+		private long bytes = 0;
+		private int[] sorted = new int[64];
+
+		public void add(Basket basket) {
+			add(basket.ids, basket.size);
+		}
+
+		private void add(int[] ids, int count) {
+			if (sorted.length < count) {
+				sorted = new int[Math.max(count, sorted.length * 2)];
+			}
+			System.arraycopy(ids, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+
+			writeVarint(count);
+			int previous = 0;
+			for (int i = 0; i < count; i++) {
+				writeVarint(sorted[i] - previous);
+				previous = sorted[i];
+			}
+
+			size++;
+			if (++basketsInCurrent == BLOCK_BASKETS) {
+				closeBlock();
+			}
+		}
+
+		/**
+		 * Baskets of other, with ids[id] in place of every id
+		 */
+		public void addAll(BasketStore other, int[] ids) {
+			Basket basket = new Basket();
+			for (int b = 0; b < other.blocks(); b++) {
+				Reader reader = new Reader(other.block(b));
+				while (reader.next(basket)) {
+					for (int i = 0; i < basket.size; i++) {
+						basket.ids[i] = ids[basket.ids[i]];
+					}
+					add(basket);
+				}
+			}
+		}
+
+		private void writeVarint(int value) {
+			if (position + 5 > current.length) {
+				current = Arrays.copyOf(current, current.length * 2);
+			}
+			while ((value & ~0x7F) != 0) {
+				current[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			current[position++] = (byte) value;
+		}
+
+		private void closeBlock() {
+			blocks.add(Arrays.copyOf(current, position));
+			bytes += position;
+			position = 0;
+			basketsInCurrent = 0;
+		}
+
+		// the block being written counts as the last one
+		public int blocks() {
+			return blocks.size() + (basketsInCurrent > 0 ? 1 : 0);
+		}
+
+		private byte[] block(int b) {
+			return b < blocks.size() ? blocks.get(b) : Arrays.copyOf(current, position);
+		}
+
+		/**
+		 * Runs task over every basket of the blocks [from, to)
+		 */
+		public void replay(int from, int to, BasketTask task) {
+			Basket basket = new Basket();
+			for (int b = from; b < to; b++) {
+				Reader reader = new Reader(block(b));
+				while (reader.next(basket)) {
+					task.execute(basket);
+				}
+			}
+		}
+
+		/**
+		 * Decodes the baskets of one block, one at a time
+		 */
+		static class Reader {
+			private byte[] block;
+			private int offset = 0;
+
+			public Reader(byte[] block) {
+				this.block = block;
+			}
+
+			// false at the end of the block
+			public boolean next(Basket basket) {
+				if (offset >= block.length)
+					return false;
+
+				int count = readVarint();
+				if (basket.ids.length < count) {
+					basket.ids = new int[Math.max(count, basket.ids.length * 2)];
+				}
+				int id = 0;
+				for (int i = 0; i < count; i++) {
+					id += readVarint();
+					basket.ids[i] = id;
+				}
+				basket.size = count;
+				return true;
+			}
+
+			private int readVarint() {
+				int value = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = block[offset++];
+					value |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				return value;
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long bytes() {
+			return bytes + position;
+		}
+	}
+
+	/**
+	 * Open addressing hash map from long keys (>= 0) to int counts, with
+	 * linear probing. 12 bytes per slot and no object per entry.
+	 */
+	static class LongIntHashMap {
+		static final long EMPTY = -1L;
+		private static final float LOAD_FACTOR = 0.7f;
+
+		private long[] keys;
+		private int[] values;
+		private int size;
+		private int mask;
+		private int threshold;
+
+		public LongIntHashMap(int expectedSize) {
+			int capacity = 16;
+			while (capacity * LOAD_FACTOR < expectedSize) {
+				capacity <<= 1;
+			}
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			values = new int[capacity];
+			mask = capacity - 1;
+			threshold = (int) (capacity * LOAD_FACTOR);
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+		private int slot(long key) {
+			int slot = hash(key) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		public void increment(long key) {
+			add(key, 1);
+		}
+
+		public void add(long key, int delta) {
+			int slot = slot(key);
+			if (keys[slot] == EMPTY) {
+				keys[slot] = key;
+				values[slot] = delta;
+				if (++size > threshold) {
+					rehash();
+				}
+			} else {
+				values[slot] += delta;
+			}
+		}
+
+		public int get(long key) {
+			return values[slot(key)]; // 0 in an empty slot
+		}
+
+		public void addAll(LongIntHashMap other) {
+			for (int i = 0; i < other.keys.length; i++) {
+				if (other.keys[i] != EMPTY) {
+					add(other.keys[i], other.values[i]);
+				}
+			}
+		}
+
+		public boolean containsKey(long key) {
+			return keys[slot(key)] != EMPTY;
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			allocate(keys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int slot = slot(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		// slots go from 0 to capacity - 1; an unused slot has the key EMPTY
+		public int capacity() {
+			return keys.length;
+		}
+
+		public long keyAt(int slot) {
+			return keys[slot];
+		}
+
+		public int valueAt(int slot) {
+			return values[slot];
+		}
 	}
 }
@@ -0,0 +1,585 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Kernel SVM (linear, RBF, polynomial) trained by SMO with second order
+ * working set selection, shrinking and an LRU cache of kernel matrix rows.
+ * Same files as SVM: features and +1 / -1 target read by readAsVectors.
+ */
+public class KernelSVM {
+	private static final double TAU = 1e-12; // quadratic coefficient of a non positive definite pair
+
+	enum KernelType {
+		LINEAR, RBF, POLYNOMIAL
+	}
+
+	// Parameter structure for the kernel SVM
+	static class KernelParameter {
+		public KernelType kernel;
+		public double gamma; // RBF and POLYNOMIAL (<= 0: 1 / number of features)
+		public double coef0 = 0; // POLYNOMIAL
+		public int degree = 3; // POLYNOMIAL
+		public double c;
+		public double eps = 0.001; // stop when the maximal violating pair is within eps
+		public long cacheBytes = 256L << 20; // memory for kernel rows
+		public boolean shrinking = true;
+		public int maxIterations = Integer.MAX_VALUE;
+
+		public KernelParameter(KernelType kernel, double gamma, double c) {
+			this.kernel = kernel;
+			this.gamma = gamma;
+			this.c = c;
+		}
+	}
+
+	// Structure to hold the result of the kernel SVM: f(x) = sum(coef_k K(sv_k, x)) + b
+	static class KernelSVMResult {
+		public final double[][] supportVectors;
+		public final double[] coef; // alpha_k * y_k
+		public final double b;
+		public final Kernel kernel;
+		private final double[] norms; // squared norm of each support vector
+		public int iterations;
+		public long cacheHits;
+		public long cacheMisses;
+
+		public KernelSVMResult(double[][] supportVectors, double[] coef, double b, Kernel kernel) {
+			this.supportVectors = supportVectors;
+			this.coef = coef;
+			this.b = b;
+			this.kernel = kernel;
+			this.norms = new double[supportVectors.length];
+			for (int k = 0; k < supportVectors.length; k++) {
+				norms[k] = SVM.dot(supportVectors[k], supportVectors[k]);
+			}
+		}
+
+		public double decisionValue(double[] x) {
+			double xx = SVM.dot(x, x);
+			double sum = b;
+			for (int k = 0; k < supportVectors.length; k++) {
+				sum += coef[k] * kernel.value(supportVectors[k], norms[k], x, xx);
+			}
+			return sum;
+		}
+
+		public double cacheHitRate() {
+			return (double) cacheHits / Math.max(1, cacheHits + cacheMisses);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		SVM svm = new SVM();
+		double[][] datasetTrain = svm.readAsVectors(args[0]);
+		double[] fxTrain = svm.readAsVectors(args[1])[0];
+		double[][] datasetTest = svm.readAsVectors(args[2]);
+		double[] fxTest = svm.readAsVectors(args[3])[0];
+
+		KernelSVM kernelSVM = new KernelSVM();
+		long startTime = System.currentTimeMillis();
+		KernelSVMResult r = kernelSVM.train(datasetTrain, fxTrain, new KernelParameter(KernelType.RBF, 0, 100));
+		long stopTime = System.currentTimeMillis();
+		System.out.println(String.format("Perc. Error: %.2f | Time: %d ms", kernelSVM.calcPercError(r, datasetTest, fxTest), stopTime - startTime));
+		System.exit(0);
+	}
+
+	// Percentual error over a test set, as SVM.calcPercError
+	public double calcPercError(KernelSVMResult r, double[][] datasetTest, double[] fxTest) {
+		int errors = 0;
+		for (int i = 0; i < datasetTest.length; i++) {
+			errors += fxTest[i] * r.decisionValue(datasetTest[i]) < 0 ? 1 : 0;
+		}
+		return (double) errors / datasetTest.length;
+	}
+
+	public KernelSVMResult train(double[][] xi, double[] yi, KernelParameter param) {
+		Kernel kernel = new Kernel(xi, param);
+		Solver solver = new Solver(kernel, yi, param);
+		solver.solve();
+
+		int count = 0;
+		for (double a : solver.alpha) {
+			count += a > 0 ? 1 : 0;
+		}
+		double[][] supportVectors = new double[count][];
+		double[] coef = new double[count];
+		int k = 0;
+		for (int i = 0; i < xi.length; i++) {
+			if (solver.alpha[i] > 0) {
+				supportVectors[k] = xi[i];
+				coef[k] = solver.alpha[i] * yi[i];
+				k++;
+			}
+		}
+
+		KernelSVMResult result = new KernelSVMResult(supportVectors, coef, -solver.rho(), kernel.withoutRows());
+		result.iterations = solver.iterations;
+		result.cacheHits = solver.cache.hits;
+		result.cacheMisses = solver.cache.misses;
+		System.out.println(String.format("Kernel SVM - Iterations: %d | SVs: %d | Cache hit rate: %.2f%% | Cached rows: %d",
+				result.iterations, count, 100 * result.cacheHitRate(), solver.cache.size()));
+		return result;
+	}
+
+	// K(x_i, x_j); the squared norms of the rows are kept for RBF
+	static class Kernel {
+		private final KernelType type;
+		private final double gamma;
+		private final double coef0;
+		private final int degree;
+		private final double[][] x;
+		private final double[] sqNorm;
+
+		Kernel(double[][] x, KernelParameter param) {
+			this.type = param.kernel;
+			this.gamma = param.gamma > 0 ? param.gamma : 1.0 / x[0].length;
+			this.coef0 = param.coef0;
+			this.degree = param.degree;
+			this.x = x;
+			this.sqNorm = new double[x.length];
+			for (int i = 0; i < x.length; i++) {
+				sqNorm[i] = SVM.dot(x[i], x[i]);
+			}
+		}
+
+		private Kernel(Kernel other) {
+			this.type = other.type;
+			this.gamma = other.gamma;
+			this.coef0 = other.coef0;
+			this.degree = other.degree;
+			this.x = null;
+			this.sqNorm = null;
+		}
+
+		// same kernel without the training rows, kept by the result
+		Kernel withoutRows() {
+			return new Kernel(this);
+		}
+
+		double value(int i, int j) {
+			return value(x[i], sqNorm[i], x[j], sqNorm[j]);
+		}
+
+		// aa and bb are a.a and b.b
+		double value(double[] a, double aa, double[] b, double bb) {
+			switch (type) {
+			case RBF:
+				return Math.exp(-gamma * Math.max(0, aa + bb - 2 * SVM.dot(a, b)));
+			case POLYNOMIAL:
+				return Math.pow(gamma * SVM.dot(a, b) + coef0, degree);
+			default:
+				return SVM.dot(a, b);
+			}
+		}
+	}
+
+	// Row i of Q (Q_ij = y_i y_j K(x_i, x_j)); complete is false when only the active entries were computed
+	static class CachedRow {
+		final float[] q;
+		boolean complete;
+
+		CachedRow(float[] q, boolean complete) {
+			this.q = q;
+			this.complete = complete;
+		}
+	}
+
+	/**
+	 * Rows of Q bounded by maxBytes, evicting the least recently used row.
+	 * At least two rows are kept, the pair of the current SMO step.
+	 */
+	static class KernelRowCache {
+		private final long maxBytes;
+		private final LinkedHashMap<Integer, CachedRow> rows = new LinkedHashMap<Integer, CachedRow>(16, 0.75f, true);
+		private long usedBytes = 0;
+		long hits = 0;
+		long misses = 0;
+
+		KernelRowCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		CachedRow get(int i) {
+			CachedRow row = rows.get(i);
+			if (row != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return row;
+		}
+
+		void put(int i, CachedRow row) {
+			rows.put(i, row);
+			usedBytes += 4L * row.q.length;
+			Iterator<Map.Entry<Integer, CachedRow>> it = rows.entrySet().iterator();
+			while (usedBytes > maxBytes && rows.size() > 2) {
+				usedBytes -= 4L * it.next().getValue().q.length;
+				it.remove();
+			}
+		}
+
+		// the active set grew back: rows computed over the shrunk set are missing entries
+		void removePartialRows() {
+			Iterator<CachedRow> it = rows.values().iterator();
+			while (it.hasNext()) {
+				CachedRow row = it.next();
+				if (!row.complete) {
+					usedBytes -= 4L * row.q.length;
+					it.remove();
+				}
+			}
+		}
+
+		int size() {
+			return rows.size();
+		}
+	}
+
+	/**
+	 * SMO for the dual min 0.5 a'Qa - e'a, 0 <= a_i <= C, y'a = 0, with the
+	 * second order working set selection of Fan, Chen and Lin (2005).
+	 * G is the gradient Qa - e over the active set, gBar keeps
+	 * sum(C Q_ij) over the a_j at the upper bound so that the gradient of
+	 * the shrunk variables can be rebuilt.
+	 */
+	static class Solver {
+		private final Kernel kernel;
+		private final double[] y;
+		private final int n;
+		private final double c;
+		private final double eps;
+		private final boolean shrinking;
+		private final int maxIterations;
+		private final double[] qd; // Q_ii
+		final double[] alpha;
+		private final double[] g;
+		private final double[] gBar;
+		private final int[] active; // active[0 .. activeSize) are the variables not shrunk
+		private int activeSize;
+		private boolean unshrunk = false;
+		final KernelRowCache cache;
+		int iterations = 0;
+		private int workI;
+		private int workJ;
+
+		Solver(Kernel kernel, double[] yi, KernelParameter param) {
+			this.kernel = kernel;
+			this.y = yi;
+			this.n = yi.length;
+			this.c = param.c;
+			this.eps = param.eps;
+			this.shrinking = param.shrinking;
+			this.maxIterations = param.maxIterations;
+			this.cache = new KernelRowCache(param.cacheBytes);
+			this.qd = new double[n];
+			this.alpha = new double[n];
+			this.g = new double[n];
+			this.gBar = new double[n];
+			this.active = new int[n];
+			for (int i = 0; i < n; i++) {
+				qd[i] = kernel.value(i, i);
+				g[i] = -1; // a = 0
+				active[i] = i;
+			}
+			this.activeSize = n;
+		}
+
+		// row i of Q over the active set, or over all the variables when full
+		private float[] row(int i, boolean full) {
+			CachedRow cached = cache.get(i);
+			if (cached != null && (cached.complete || !full))
+				return cached.q;
+
+			float[] q = cached != null ? cached.q : new float[n];
+			boolean complete = full || activeSize == n;
+			if (complete) {
+				for (int t = 0; t < n; t++) {
+					q[t] = (float) (y[i] * y[t] * kernel.value(i, t));
+				}
+			} else {
+				for (int a = 0; a < activeSize; a++) {
+					int t = active[a];
+					q[t] = (float) (y[i] * y[t] * kernel.value(i, t));
+				}
+			}
+
+			if (cached != null) {
+				cached.complete = complete;
+			} else {
+				cache.put(i, new CachedRow(q, complete));
+			}
+			return q;
+		}
+
+		private boolean isUpperBound(int i) {
+			return alpha[i] >= c;
+		}
+
+		private boolean isLowerBound(int i) {
+			return alpha[i] <= 0;
+		}
+
+		void solve() {
+			int counter = Math.min(n, 1000) + 1;
+			while (iterations < maxIterations) {
+				if (--counter == 0) {
+					counter = Math.min(n, 1000);
+					if (shrinking) {
+						shrink();
+					}
+				}
+
+				if (!selectWorkingSet()) {
+					// optimal over the active set: check again over all the variables
+					reconstructGradient();
+					if (!selectWorkingSet())
+						break;
+					counter = 1; // shrink at the next iteration
+				}
+
+				iterations++;
+				update(workI, workJ);
+			}
+			reconstructGradient();
+		}
+
+		// returns false when the maximal violating pair is within eps
+		private boolean selectWorkingSet() {
+			double gMax = Double.NEGATIVE_INFINITY;
+			double gMax2 = Double.NEGATIVE_INFINITY;
+			int gMaxIdx = -1;
+			int gMinIdx = -1;
+			double objDiffMin = Double.POSITIVE_INFINITY;
+
+			for (int a = 0; a < activeSize; a++) {
+				int t = active[a];
+				if (y[t] > 0) {
+					if (!isUpperBound(t) && -g[t] >= gMax) {
+						gMax = -g[t];
+						gMaxIdx = t;
+					}
+				} else if (!isLowerBound(t) && g[t] >= gMax) {
+					gMax = g[t];
+					gMaxIdx = t;
+				}
+			}
+
+			int i = gMaxIdx;
+			float[] qi = i != -1 ? row(i, false) : null;
+			for (int a = 0; a < activeSize; a++) {
+				int j = active[a];
+				double gradDiff;
+				double quadCoef;
+				if (y[j] > 0) {
+					if (isLowerBound(j))
+						continue;
+					gMax2 = Math.max(gMax2, g[j]);
+					gradDiff = gMax + g[j];
+					if (gradDiff <= 0)
+						continue;
+					quadCoef = qd[i] + qd[j] - 2.0 * y[i] * qi[j];
+				} else {
+					if (isUpperBound(j))
+						continue;
+					gMax2 = Math.max(gMax2, -g[j]);
+					gradDiff = gMax - g[j];
+					if (gradDiff <= 0)
+						continue;
+					quadCoef = qd[i] + qd[j] + 2.0 * y[i] * qi[j];
+				}
+				double objDiff = -(gradDiff * gradDiff) / (quadCoef > 0 ? quadCoef : TAU);
+				if (objDiff <= objDiffMin) {
+					gMinIdx = j;
+					objDiffMin = objDiff;
+				}
+			}
+
+			if (gMax + gMax2 < eps || gMinIdx == -1)
+				return false;
+
+			workI = gMaxIdx;
+			workJ = gMinIdx;
+			return true;
+		}
+
+		// analytic solution of the two variable sub problem, then the gradient updates
+		private void update(int i, int j) {
+			float[] qi = row(i, false);
+			float[] qj = row(j, false);
+			double oldAlphaI = alpha[i];
+			double oldAlphaJ = alpha[j];
+
+			if (y[i] != y[j]) {
+				double quadCoef = qd[i] + qd[j] + 2 * qi[j];
+				double delta = (-g[i] - g[j]) / (quadCoef > 0 ? quadCoef : TAU);
+				double diff = alpha[i] - alpha[j];
+				alpha[i] += delta;
+				alpha[j] += delta;
+				if (diff > 0) {
+					if (alpha[j] < 0) {
+						alpha[j] = 0;
+						alpha[i] = diff;
+					}
+				} else if (alpha[i] < 0) {
+					alpha[i] = 0;
+					alpha[j] = -diff;
+				}
+				if (diff > 0) {
+					if (alpha[i] > c) {
+						alpha[i] = c;
+						alpha[j] = c - diff;
+					}
+				} else if (alpha[j] > c) {
+					alpha[j] = c;
+					alpha[i] = c + diff;
+				}
+			} else {
+				double quadCoef = qd[i] + qd[j] - 2 * qi[j];
+				double delta = (g[i] - g[j]) / (quadCoef > 0 ? quadCoef : TAU);
+				double sum = alpha[i] + alpha[j];
+				alpha[i] -= delta;
+				alpha[j] += delta;
+				if (sum > c) {
+					if (alpha[i] > c) {
+						alpha[i] = c;
+						alpha[j] = sum - c;
+					}
+				} else if (alpha[j] < 0) {
+					alpha[j] = 0;
+					alpha[i] = sum;
+				}
+				if (sum > c) {
+					if (alpha[j] > c) {
+						alpha[j] = c;
+						alpha[i] = sum - c;
+					}
+				} else if (alpha[i] < 0) {
+					alpha[i] = 0;
+					alpha[j] = sum;
+				}
+			}
+
+			double deltaAlphaI = alpha[i] - oldAlphaI;
+			double deltaAlphaJ = alpha[j] - oldAlphaJ;
+			for (int a = 0; a < activeSize; a++) {
+				int t = active[a];
+				g[t] += qi[t] * deltaAlphaI + qj[t] * deltaAlphaJ;
+			}
+
+			updateGBar(i, oldAlphaI >= c);
+			updateGBar(j, oldAlphaJ >= c);
+		}
+
+		private void updateGBar(int i, boolean wasUpperBound) {
+			if (wasUpperBound == isUpperBound(i))
+				return;
+
+			float[] q = row(i, true);
+			double f = wasUpperBound ? -c : c;
+			for (int t = 0; t < n; t++) {
+				gBar[t] += f * q[t];
+			}
+		}
+
+		private boolean beShrunk(int i, double gMax1, double gMax2) {
+			if (isUpperBound(i)) {
+				return y[i] > 0 ? -g[i] > gMax1 : -g[i] > gMax2;
+			} else if (isLowerBound(i)) {
+				return y[i] > 0 ? g[i] > gMax2 : g[i] > gMax1;
+			}
+			return false;
+		}
+
+		// removes from the active set the variables at a bound that are not expected to move
+		private void shrink() {
+			double gMax1 = Double.NEGATIVE_INFINITY; // max { -y_i G_i | i in I_up }
+			double gMax2 = Double.NEGATIVE_INFINITY; // max { y_i G_i | i in I_low }
+			for (int a = 0; a < activeSize; a++) {
+				int t = active[a];
+				if (y[t] > 0) {
+					if (!isUpperBound(t))
+						gMax1 = Math.max(gMax1, -g[t]);
+					if (!isLowerBound(t))
+						gMax2 = Math.max(gMax2, g[t]);
+				} else {
+					if (!isUpperBound(t))
+						gMax2 = Math.max(gMax2, -g[t]);
+					if (!isLowerBound(t))
+						gMax1 = Math.max(gMax1, g[t]);
+				}
+			}
+
+			if (!unshrunk && gMax1 + gMax2 <= eps * 10) { // close to the end: once more over all the variables
+				unshrunk = true;
+				reconstructGradient();
+			}
+
+			for (int a = activeSize - 1; a >= 0; a--) {
+				int t = active[a];
+				if (beShrunk(t, gMax1, gMax2)) {
+					activeSize--;
+					active[a] = active[activeSize];
+					active[activeSize] = t;
+				}
+			}
+		}
+
+		// gradient of the shrunk variables, from gBar and the free variables; then all become active
+		private void reconstructGradient() {
+			if (activeSize == n)
+				return;
+
+			boolean[] isActive = new boolean[n];
+			for (int a = 0; a < activeSize; a++) {
+				isActive[active[a]] = true;
+			}
+			for (int t = 0; t < n; t++) {
+				if (!isActive[t]) {
+					g[t] = gBar[t] - 1;
+				}
+			}
+			for (int a = 0; a < activeSize; a++) {
+				int i = active[a];
+				if (!isUpperBound(i) && !isLowerBound(i)) { // free variables are never shrunk
+					float[] q = row(i, true);
+					for (int t = 0; t < n; t++) {
+						if (!isActive[t]) {
+							g[t] += alpha[i] * q[t];
+						}
+					}
+				}
+			}
+
+			activeSize = n;
+			cache.removePartialRows();
+		}
+
+		// -b: average of y_i G_i over the free variables, or the middle of its feasible interval
+		double rho() {
+			int free = 0;
+			double sumFree = 0;
+			double ub = Double.POSITIVE_INFINITY;
+			double lb = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				double yG = y[i] * g[i];
+				if (isUpperBound(i)) {
+					if (y[i] < 0)
+						ub = Math.min(ub, yG);
+					else
+						lb = Math.max(lb, yG);
+				} else if (isLowerBound(i)) {
+					if (y[i] > 0)
+						ub = Math.min(ub, yG);
+					else
+						lb = Math.max(lb, yG);
+				} else {
+					free++;
+					sumFree += yG;
+				}
+			}
+			return free > 0 ? sumFree / free : (ub + lb) / 2;
+		}
+	}
+}
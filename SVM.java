@@ -1,20 +1,69 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Implementation of SVM - Support vector machine (Batch, SGD, MiniBatch)
  * @author Douglas Fernando da Silva - doug.fernando@gmail.com
  */
 public class SVM {
+	static final String BINARY_EXTENSION = ".svmb"; // files written by convertToBinary
+
 	// Parameter structure for Batch, SGD and MiniBatch
 	static class SVMParameter {
 		public int batchSize;
 		public double eta;
 		public double eps;
 		public int c;
+		// how the objective is evaluated for the stopping rule of the mini batch modes
+		public ConvergenceMode convergenceMode = ConvergenceMode.FULL;
+		public int sampleSize = 1000; // samples used by SAMPLE
+		public int evalEvery = 100; // steps between evaluations for EVERY_N
+		public int threads = 1; // threads for the parallel batch gradient and the parallel SGD
+		public SharedUpdate sharedUpdate = SharedUpdate.HOGWILD; // weight updates of the parallel SGD
+		public int chunkRows = 10000; // rows read at once by the streaming trainer
+		public int shuffleBufferRows = 100000; // rows in the shuffle buffer of the streaming trainer
+		public StepSchedule schedule = StepSchedule.CONSTANT; // learning rate of the dense mini batch
+		public double adagradEta = 0.1; // base rate of ADAGRAD (eta is tuned for CONSTANT)
+		public boolean physicalShuffle = false; // FlatDataset: reorder the rows in memory every epoch
+		public boolean averaging = false; // return the average of the iterates (Polyak averaging)
+		public double targetFk = Double.NEGATIVE_INFINITY; // also stop once the objective reaches it
+		public int maxIterations = Integer.MAX_VALUE; // also stop after this many steps
+		public String checkpointPath = null; // training state is saved there periodically (null = never)
+		public int checkpointEvery = 10000; // steps between checkpoints
+		public TrainingListener listener = new ConsoleListener(); // training progress (null = no telemetry)
+		public long telemetryIntervalMs = 1000; // minimum time between progress reports (0 = every evaluation)
 
 		public SVMParameter(int batchSize, double eta, double eps, int c) {
 			this.batchSize = batchSize;
@@ -22,21 +71,93 @@ public class SVM {
 			this.eps = eps;
 			this.c = c;
 		}
+
+		// copy of this parameter with another regularization parameter
+		public SVMParameter withC(int c) {
+			SVMParameter result = new SVMParameter(batchSize, eta, eps, c);
+			result.convergenceMode = convergenceMode;
+			result.sampleSize = sampleSize;
+			result.evalEvery = evalEvery;
+			result.threads = threads;
+			result.sharedUpdate = sharedUpdate;
+			result.chunkRows = chunkRows;
+			result.shuffleBufferRows = shuffleBufferRows;
+			result.schedule = schedule;
+			result.adagradEta = adagradEta;
+			result.physicalShuffle = physicalShuffle;
+			result.averaging = averaging;
+			result.targetFk = targetFk;
+			result.maxIterations = maxIterations;
+			result.checkpointPath = checkpointPath;
+			result.checkpointEvery = checkpointEvery;
+			result.listener = listener;
+			result.telemetryIntervalMs = telemetryIntervalMs;
+			return result;
+		}
 	}
 	
+	/**
+	 * Objective used by the stopping rule of the mini batch modes:
+	 * FULL evaluates f(w, b) over all samples after every step,
+	 * RUNNING_ESTIMATE extrapolates it, once per epoch, from the losses of the batches processed in that epoch,
+	 * SAMPLE extrapolates it from a fixed random sample of sampleSize rows (which
+	 * are still trained on, so it is not a held out estimate) and
+	 * EVERY_N evaluates it over all samples once every evalEvery steps.
+	 * The rule smooths the relative change of the objective between two
+	 * evaluations and stops once it is below eps. With FULL that is the change
+	 * of one step, as in the plain mini batch; the modes evaluating less often
+	 * compare the change over their whole interval, so spacing the evaluations
+	 * does not make the training stop sooner.
+	 */
+	enum ConvergenceMode {
+		FULL, RUNNING_ESTIMATE, SAMPLE, EVERY_N
+	}
+
+	/**
+	 * How the parallel SGD workers write the shared weights:
+	 * HOGWILD without any synchronization, ATOMIC with a CAS per coordinate and
+	 * STRIPED holding a lock per block of coordinates.
+	 */
+	enum SharedUpdate {
+		HOGWILD, ATOMIC, STRIPED
+	}
+
+	/**
+	 * Learning rate of the mini batch steps: CONSTANT uses eta, PEGASOS uses
+	 * 1 / (lambda t) with lambda = 1 / (C * batchSize) (with this objective the
+	 * step on the gradient is 1 / t) and projects w onto the ball of radius
+	 * 1 / sqrt(lambda), ADAGRAD uses adagradEta / sqrt(sum of the squared past
+	 * gradients) per coordinate. The normalized AdaGrad step needs a much
+	 * larger base rate than the raw gradient steps of eta.
+	 */
+	enum StepSchedule {
+		CONSTANT, PEGASOS, ADAGRAD
+	}
+
 	// Structure to hold the result of the SVM
 	static class SVMResult {
 		public double[] w;
 		public double b;
+		public int iterations; // steps (epochs for the parallel SGD) done by the training
 		public SVMResult(double[] w, double b) {
 			this.w = w;
 			this.b = b;
 		}
+
+		public SVMResult(double[] w, double b, int iterations) {
+			this(w, b);
+			this.iterations = iterations;
+		}
 	}
 	
 	public static void main(String[] args) throws Exception {
 		SVM svm = new SVM();
  
+		if (args[0].equals("convert")) { // convert <csv file> <binary file> [float32]
+			svm.convertToBinary(args[1], args[2], args.length > 3 && args[3].equals("float32"));
+			System.exit(0);
+		}
+
 		double[][] xi = svm.readAsVectors(args[0]); // features
 		double[] yi = svm.readAsVectors(args[1])[0]; // target
 
@@ -58,11 +179,101 @@ public class SVM {
 			double[] fxTest) {
 		// REG PARAM
 	    int[] c = {1, 10, 50, 100, 200, 300, 400, 500 };
-	    for (int i = 0; i < c.length; i++) {
-		    SVMResult r = miniBatchGradDesc(datasetTrain, fxTrain, new SVMParameter(1, 0.0001, 0.001, c[i]));
-			double percError = calcPercError(r, datasetTest, fxTest);
-			System.out.println(String.format("C: %d | Perc. Error: %.2f", c[i], percError));
+	    int threads = Runtime.getRuntime().availableProcessors();
+	    long startTime = System.currentTimeMillis();
+	    List<SweepResult> results = regParamSweep(datasetTrain, fxTrain, datasetTest, fxTest, c,
+	    		new SVMParameter(1, 0.0001, 0.001, 0), threads, false);
+	    long stopTime = System.currentTimeMillis();
+	    for (SweepResult r : results) {
+			System.out.println(String.format("C: %d | Perc. Error: %.2f | Time: %d ms | Iterations: %d", r.c, r.percError, r.elapsedTime, r.iterations));
+		}
+	    System.out.println("Reg. param sweep elapsed time: " + (stopTime - startTime));
+	}
+
+	// Result of one C of the regularization sweep
+	static class SweepResult {
+		public final int c;
+		public final double percError;
+		public final long elapsedTime; // ms
+		public final int iterations;
+
+		public SweepResult(int c, double percError, long elapsedTime, int iterations) {
+			this.c = c;
+			this.percError = percError;
+			this.elapsedTime = elapsedTime;
+			this.iterations = iterations;
+		}
+	}
+
+	/**
+	 * Trains one model per C concurrently on up to threads threads. All the
+	 * trainings share the same rows of datasetTrain, which are never
+	 * modified (each training shuffles its own copy of the row references).
+	 * With warmStart, the C values are sorted and split in one chain per
+	 * thread, each of at least two adjacent C values (so fewer chains than
+	 * threads on a short grid); inside a chain each C starts from the
+	 * solution of the previous C.
+	 * The results are in the order of c. With checkpointing the training of
+	 * each C writes to svmParam.checkpointPath + ".c" + C.
+	 */
+	public List<SweepResult> regParamSweep(final double[][] datasetTrain, final double[] fxTrain,
+			final double[][] datasetTest, final double[] fxTest, int[] c, final SVMParameter svmParam, int threads,
+			boolean warmStart) {
+		final int[] sorted = c.clone();
+		if (warmStart) {
+			Arrays.sort(sorted);
+		}
+
+		int chains = warmStart ? Math.max(1, Math.min(threads, sorted.length / 2)) : sorted.length;
+		final SweepResult[] results = new SweepResult[sorted.length];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < chains; t++) {
+			final int ini = t * sorted.length / chains;
+			final int end = (t + 1) * sorted.length / chains;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					SVMResult previous = null;
+					for (int i = ini; i < end; i++) {
+						long startTime = System.currentTimeMillis();
+						SVMParameter param = svmParam.withC(sorted[i]);
+						if (param.checkpointPath != null) { // one checkpoint per C, as the trainings run concurrently
+							param.checkpointPath = svmParam.checkpointPath + ".c" + sorted[i];
+						}
+						SVMResult r = miniBatchGradDesc(datasetTrain.clone(), fxTrain.clone(), param, previous);
+						long stopTime = System.currentTimeMillis();
+						results[i] = new SweepResult(sorted[i], calcPercError(r, datasetTest, fxTest), stopTime - startTime, r.iterations);
+						previous = r;
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		List<SweepResult> ordered = new ArrayList<SweepResult>();
+		for (int value : c) {
+			for (SweepResult r : results) {
+				if (r.c == value && !ordered.contains(r)) {
+					ordered.add(r);
+					break;
+				}
+			}
 		}
+		return ordered;
 	}
 
 	// MINI BATCH
@@ -81,6 +292,19 @@ public class SVM {
 	    System.out.println("SGD elapsed time: " + (stopTime - startTime));
 	}
 
+	// PARALLEL SGD: throughput for an increasing number of threads
+	public void runParallelSGD(double[][] dataset, double[] fx) {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			SVMParameter svmParam = new SVMParameter(1, 0.0001, 0.001, 100);
+			svmParam.threads = threads;
+			long startTime = System.currentTimeMillis();
+			parallelSGD(dataset, fx, svmParam);
+			long stopTime = System.currentTimeMillis();
+		    System.out.println("Parallel SGD (" + threads + " threads) elapsed time: " + (stopTime - startTime));
+		}
+	}
+
 	// BATCH
 	public void runBatch(double[][] dataset, double[] fx) {
 		long startTime = System.currentTimeMillis();
@@ -91,166 +315,2716 @@ public class SVM {
 	
 	// Percentual error for item f)
 	private double calcPercError(SVMResult r, double[][] datasetTest, double[] fxTest) {
-		int n = datasetTest.length;
-		int errorCount = 0;
-		for (int i = 0; i < fxTest.length; i++) {
-			double dotValue = dot(datasetTest[i], r.w);
-			double val = fxTest[i] * (dotValue  + r.b);
-			errorCount += val < 0? 1: 0;
+		return new Scorer(r, 1).evaluate(new DenseDataset(datasetTest), fxTest).errorRate();
+	}
+
+	/**
+	 * Batch scoring of a trained SVMResult over any Dataset (dense, sparse or
+	 * memory-mapped): decision values w.x + b, labels and error metrics.
+	 * Rows are processed in blocks of ROWS_PER_BLOCK by a fork/join pool.
+	 */
+	static class Scorer {
+		static final int ROWS_PER_BLOCK = 4096;
+
+		private final SVMResult model;
+		private final int threads;
+
+		public Scorer(SVMResult model, int threads) {
+			this.model = model;
+			this.threads = Math.max(1, threads);
+		}
+
+		public double[] decisionValues(Dataset data) {
+			double[] result = new double[data.rows()];
+			decisionValues(data, 0, data.rows(), result);
+			return result;
+		}
+
+		/**
+		 * Decision values of the rows [from, to) into out[0 .. to - from), so
+		 * that very large datasets can be scored one slice at a time.
+		 */
+		public void decisionValues(final Dataset data, final int from, final int to, final double[] out) {
+			runBlocks(from, to, threads, new BlockAction() {
+				@Override
+				public void run(int ini, int end) {
+					for (int i = ini; i < end; i++) {
+						out[i - from] = data.dot(i, model.w) + model.b;
+					}
+				}
+			});
+		}
+
+		// predicted labels: +1 when w.x + b >= 0, -1 otherwise
+		public double[] labels(Dataset data) {
+			double[] result = decisionValues(data);
+			for (int i = 0; i < result.length; i++) {
+				result[i] = result[i] >= 0 ? 1 : -1;
+			}
+			return result;
+		}
+
+		// error metrics against the targets yi (+1 / -1)
+		public ScoreMetrics evaluate(Dataset data, double[] yi) {
+			int blocks = (data.rows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+			ScoreMetrics[] partials = new ScoreMetrics[Math.max(1, blocks)];
+			for (int i = 0; i < partials.length; i++) {
+				partials[i] = new ScoreMetrics();
+			}
+			evaluate(data, yi, partials);
+
+			ScoreMetrics result = new ScoreMetrics();
+			for (ScoreMetrics p : partials) { // fixed order: the hinge loss sum does not depend on threads
+				result.add(p);
+			}
+			return result;
+		}
+
+		private void evaluate(final Dataset data, final double[] yi, final ScoreMetrics[] partials) {
+			runBlocks(0, data.rows(), threads, new BlockAction() {
+				@Override
+				public void run(int ini, int end) {
+					ScoreMetrics m = partials[ini / ROWS_PER_BLOCK];
+					for (int i = ini; i < end; i++) {
+						m.add(yi[i], data.dot(i, model.w) + model.b);
+					}
+				}
+			});
+		}
+
+		static void runBlocks(int from, int to, int threads, BlockAction action) {
+			if (threads == 1 || to - from <= ROWS_PER_BLOCK) {
+				for (int ini = from; ini < to; ini += ROWS_PER_BLOCK) {
+					action.run(ini, Math.min(to, ini + ROWS_PER_BLOCK));
+				}
+				return;
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(new BlockTask(action, from, to));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		interface BlockAction {
+			void run(int ini, int end);
+		}
+
+		// Splits [ini, end) down to blocks of ROWS_PER_BLOCK rows (aligned to multiples of it)
+		@SuppressWarnings("serial")
+		static class BlockTask extends RecursiveAction {
+			private final BlockAction action;
+			private final int ini;
+			private final int end;
+
+			BlockTask(BlockAction action, int ini, int end) {
+				this.action = action;
+				this.ini = ini;
+				this.end = end;
+			}
+
+			@Override
+			protected void compute() {
+				int firstBlock = ini / ROWS_PER_BLOCK;
+				int lastBlock = (end - 1) / ROWS_PER_BLOCK;
+				if (firstBlock == lastBlock) {
+					action.run(ini, end);
+					return;
+				}
+
+				int mid = ((firstBlock + lastBlock + 1) / 2) * ROWS_PER_BLOCK;
+				invokeAll(new BlockTask(action, ini, mid), new BlockTask(action, mid, end));
+			}
+		}
+	}
+
+	/**
+	 * One-vs-rest multiclass training: one binary mini batch per class, the
+	 * classes trained concurrently by threads workers over the same xi and
+	 * labels. The rows and labels are shuffled once, in a shallow copy shared
+	 * by all the classes, and the +1 / -1 target of a row is derived from its
+	 * label where it is used, so no class copies them. With checkpointing
+	 * each class writes to svmParam.checkpointPath + ".class" + its index.
+	 */
+	public MulticlassResult oneVsRest(final double[][] xi, final double[] labels, final SVMParameter svmParam,
+			int threads) {
+		final double[] classes = distinctLabels(labels);
+		final int d = xi[0].length;
+		final MulticlassResult result = new MulticlassResult(classes, d);
+		// the mini batch reads the rows in order: a shallow copy keeps the caller's rows untouched
+		final double[][] rows = xi.clone();
+		final double[] rowLabels = labels.clone();
+		shuffle(rows, rowLabels);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < classes.length; c++) {
+			final int cls = c;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					SVMParameter classParam = svmParam;
+					if (svmParam.checkpointPath != null) {
+						classParam = svmParam.withC(svmParam.c);
+						classParam.checkpointPath = svmParam.checkpointPath + ".class" + cls;
+					}
+					SVMResult r = miniBatchGradDesc(rows, rowLabels, classes[cls], classParam, null, null);
+					System.arraycopy(r.w, 0, result.weights, cls * d, d);
+					result.b[cls] = r.b;
+					result.iterations[cls] = r.iterations;
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
 		}
-		
-		double result = (double)errorCount/n;
 		return result;
 	}
 
+	// sorted distinct values of labels
+	private static double[] distinctLabels(double[] labels) {
+		double[] sorted = labels.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[count++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, count);
+	}
+
+	/**
+	 * One binary model per class, with the weight vectors in one row-major
+	 * array (class c at weights[c * d .. (c + 1) * d)). Prediction scores each
+	 * row against all the classes while the row is in cache, in blocks of
+	 * Scorer.ROWS_PER_BLOCK rows.
+	 */
+	static class MulticlassResult {
+		public final double[] classes; // label of each binary model
+		public final double[] weights;
+		public final double[] b;
+		public final int[] iterations;
+		public final int d;
+
+		public MulticlassResult(double[] classes, int d) {
+			this.classes = classes;
+			this.d = d;
+			this.weights = new double[classes.length * d];
+			this.b = new double[classes.length];
+			this.iterations = new int[classes.length];
+		}
+
+		// binary model of class c (against all the others)
+		public SVMResult model(int c) {
+			return new SVMResult(Arrays.copyOfRange(weights, c * d, (c + 1) * d), b[c], iterations[c]);
+		}
+
+		// w.x + b of every class for the row x into out[0 .. classes.length)
+		public void decisionValues(double[] x, double[] out) {
+			for (int c = 0; c < classes.length; c++) {
+				out[c] = VECTOR_MATH.dot(weights, c * d, x, d) + b[c];
+			}
+		}
+
+		// label of the class with the largest decision value, for every row
+		public double[] predict(final double[][] xi, int threads) {
+			final double[] result = new double[xi.length];
+			Scorer.runBlocks(0, xi.length, Math.max(1, threads), new Scorer.BlockAction() {
+				@Override
+				public void run(int ini, int end) {
+					for (int i = ini; i < end; i++) {
+						int best = 0;
+						double bestValue = Double.NEGATIVE_INFINITY;
+						for (int c = 0; c < classes.length; c++) {
+							double value = VECTOR_MATH.dot(weights, c * d, xi[i], d) + b[c];
+							if (value > bestValue) {
+								bestValue = value;
+								best = c;
+							}
+						}
+						result[i] = classes[best];
+					}
+				}
+			});
+			return result;
+		}
+
+		public double errorRate(double[][] xi, double[] labels, int threads) {
+			double[] predicted = predict(xi, threads);
+			long errors = 0;
+			for (int i = 0; i < predicted.length; i++) {
+				errors += predicted[i] != labels[i] ? 1 : 0;
+			}
+			return (double) errors / predicted.length;
+		}
+	}
+
+	// Confusion counts and losses of a scored dataset
+	static class ScoreMetrics {
+		public long truePositives;
+		public long falsePositives;
+		public long trueNegatives;
+		public long falseNegatives;
+		public long errors; // y (w.x + b) < 0, the criterion of calcPercError
+		public double hingeLoss; // sum of max(0, 1 - y (w.x + b))
+
+		void add(double y, double decisionValue) {
+			double val = y * decisionValue;
+			errors += val < 0 ? 1 : 0;
+			hingeLoss += Math.max(0, 1 - val);
+			if (decisionValue >= 0) {
+				if (y > 0) truePositives++; else falsePositives++;
+			} else {
+				if (y > 0) falseNegatives++; else trueNegatives++;
+			}
+		}
+
+		void add(ScoreMetrics other) {
+			truePositives += other.truePositives;
+			falsePositives += other.falsePositives;
+			trueNegatives += other.trueNegatives;
+			falseNegatives += other.falseNegatives;
+			errors += other.errors;
+			hingeLoss += other.hingeLoss;
+		}
+
+		public long rows() {
+			return truePositives + falsePositives + trueNegatives + falseNegatives;
+		}
+
+		public double errorRate() {
+			return (double) errors / rows();
+		}
+
+		public double precision() {
+			return (double) truePositives / (truePositives + falsePositives);
+		}
+
+		public double recall() {
+			return (double) truePositives / (truePositives + falseNegatives);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Rows: %d | Perc. Error: %.4f | Precision: %.4f | Recall: %.4f | Avg. hinge loss: %.4f",
+					rows(), errorRate(), precision(), recall(), hingeLoss / rows());
+		}
+	}
+
 	// For batchSize = 1 => SGD
 	public SVMResult miniBatchGradDesc(double[][] xi, double[] yi, SVMParameter svmParam) {
+		return miniBatchGradDesc(xi, yi, svmParam, null);
+	}
+
+	// Mini batch starting from a previous result (warm start) instead of w = 0 and b = 0
+	public SVMResult miniBatchGradDesc(double[][] xi, double[] yi, SVMParameter svmParam, SVMResult init) {
+		return miniBatchGradDesc(xi, yi, Double.NaN, svmParam, init, null);
+	}
+
+	// Mini batch continuing from the checkpoint at svmParam.checkpointPath (the data is shuffled again)
+	public SVMResult resumeMiniBatchGradDesc(double[][] xi, double[] yi, SVMParameter svmParam) throws IOException {
+		return miniBatchGradDesc(xi, yi, Double.NaN, svmParam, null, TrainingCheckpoint.read(svmParam.checkpointPath));
+	}
+
+	/**
+	 * init or resume may be given (or none). With a positive class (not NaN)
+	 * yi holds class labels, the rows of that class are the +1 samples and
+	 * the caller has already shuffled xi and yi, which are left untouched.
+	 */
+	private SVMResult miniBatchGradDesc(double[][] xi, double[] yi, double positive, SVMParameter svmParam,
+			SVMResult init, TrainingCheckpoint resume) {
 		int d = xi[0].length; // number of dimensions
 		double[] w = new double[d]; // w for the SVM (result)
 		double b = 0; // b for the SVM (result)
+		if (init != null) {
+			w = init.w.clone();
+			b = init.b;
+		} else if (resume != null) {
+			w = resume.w.clone();
+			b = resume.b;
+		}
 		boolean shouldStop = false;
 		int n = xi.length; // number of training samples
-		double deltaCostMinus1 = 0; // delta cost for k-1 iteration
-		shuffle(xi, yi); // shuffle the training date
-		double fkMinus1 = calcFk(w, b, xi, yi, svmParam.c); // f0
+		if (Double.isNaN(positive)) {
+			shuffle(xi, yi); // shuffle the training date
+		}
+		ConvergenceMonitor monitor = new ConvergenceMonitor(svmParam, n);
+		monitor.positive = positive;
+		if (init != null) {
+			monitor.setInitialObjective(calcFk(w, b, xi, yi, positive, svmParam.c));
+		}
+		GradientEngine grad = new GradientEngine(d);
+		grad.positive = positive;
+		StepRule step = new StepRule(svmParam, d);
+		IterateAverage average = svmParam.averaging ? new IterateAverage(w, b, (n + svmParam.batchSize - 1) / svmParam.batchSize) : null;
+		Telemetry telemetry = new Telemetry(svmParam, "SGD");
 		
 		int k = 0;
 		int l = 0;
+		if (resume != null) {
+			k = resume.k;
+			resume.restore(monitor, step, average);
+		}
 		while (!shouldStop) {			
 			int ini = l * svmParam.batchSize;
 			int end = Math.min(n, (l + 1) * svmParam.batchSize);
 			
-			double[] wNew = new double[d]; // for updating w using w from previous iteration
-			for (int j = 0; j < d; j++) {
-				double tmp = w[j] - svmParam.eta * gradW(j, w, b, xi, yi, ini, end, svmParam.c);
-				wNew[j] = tmp;
-			}
-			w = wNew;
-			
-			b += (-1.0 * svmParam.eta * gradB(w, b, xi, yi, ini, end, svmParam.c));
+			grad.compute(w, b, xi, yi, ini, end, svmParam.c); // gradient using w from previous iteration
+			telemetry.gradientDone(end - ini);
+			b -= step.apply(w, grad);
 			l = (l + 1) % ((n + svmParam.batchSize - 1) / svmParam.batchSize);
 			
-			double fk = calcFk(w, b, xi, yi, svmParam.c);
-			double deltaCostPerc = deltaCostPerc(fk, fkMinus1);
-			double newDeltaCost = 0.5 * deltaCostMinus1 + 0.5 * deltaCostPerc;
-			
-			shouldStop = newDeltaCost < svmParam.eps;
-			deltaCostMinus1 = newDeltaCost;
-			fkMinus1 = fk;
-			System.out.println(String.format("SGD - K: %d | FK: %.4f | Error: %.4f | ini: %s | end: %s | b: %.4f | |w|: %.4f", k, fk, newDeltaCost, ini, end, b, dot(w,w)));
+			monitor.recordBatch(grad.hingeLoss, end - ini);
+			double[] wResult = w;
+			double bResult = b;
+			if (average != null && average.add(w, b)) { // the stopping rule follows the averaged w, which is the result
+				wResult = average.w;
+				bResult = average.b;
+			}
+			telemetry.updateDone();
+			if (monitor.evaluate(wResult, bResult, xi, yi)) {
+				shouldStop = monitor.shouldStop();
+				telemetry.evaluationDone();
+				if (telemetry.due(shouldStop)) {
+					telemetry.report(k, monitor.getFk(), monitor.getDeltaCost(), bResult, dot(wResult, wResult), shouldStop);
+				}
+			}
 			k++;
+			if (svmParam.checkpointPath != null && k % svmParam.checkpointEvery == 0) {
+				TrainingCheckpoint.capture(w, b, k, monitor, step, average).write(svmParam.checkpointPath);
+			}
 		}
 
-		return new SVMResult(w, b);
+		if (average != null && average.started()) {
+			return new SVMResult(average.w, average.b, k);
+		}
+		return new SVMResult(w, b, k);
 	}
 
-	private void shuffle(double[][] xi, double[] yi) {
+	/**
+	 * Mini batch over a FlatDataset. By default the rows are shuffled once
+	 * through a permutation index and never move. With
+	 * svmParam.physicalShuffle the rows (and yi) are reordered in memory at
+	 * the start of every epoch, so each epoch reads the data sequentially.
+	 */
+	public SVMResult miniBatchGradDesc(FlatDataset xi, double[] yi, SVMParameter svmParam) {
+		int d = xi.cols; // number of dimensions
+		double[] w = new double[d]; // w for the SVM (result)
+		double b = 0; // b for the SVM (result)
+		boolean shouldStop = false;
+		int n = xi.rows; // number of training samples
 		Random rgen = new Random(System.currentTimeMillis());
-		for (int i = 0; i < xi.length; i++) {
-		    int randomPosition = rgen.nextInt(xi.length);
-		    double[] temp = xi[i];
-		    xi[i] = xi[randomPosition];
-		    xi[randomPosition] = temp;
-		    double fxTmp = yi[i];
-		    yi[i] = yi[randomPosition];
-		    yi[randomPosition] = fxTmp;
+		int[] order = shuffledOrder(n, rgen); // shuffle the training data through the row order
+		if (svmParam.physicalShuffle) {
+			xi.permute(order, yi);
+			order = null;
 		}
-	}
-	
-	public SVMResult batchGradient(double[][] xi, double[] yi, SVMParameter svmParam) {
-		int d = xi[0].length;
-		double[] w = new double[d];
-		double b = 0;
-		int k = 0;
-		boolean shouldStop = false;
-		int n = xi.length;
-		double fkMinus1 = calcFk(w, b, xi, yi, svmParam.c); // f0
+		ConvergenceMonitor monitor = new ConvergenceMonitor(svmParam, n);
+		GradientEngine grad = new GradientEngine(d);
+		StepRule step = new StepRule(svmParam, d);
+		int batches = (n + svmParam.batchSize - 1) / svmParam.batchSize;
+		IterateAverage average = svmParam.averaging ? new IterateAverage(w, b, batches) : null;
+		Telemetry telemetry = new Telemetry(svmParam, "Flat SGD");
 
+		int k = 0;
+		int l = 0;
 		while (!shouldStop) {
-			double[] wNew = new double[d];
-			for (int j = 0; j < d; j++) { // update using w from prev iteration
-				double tmp = w[j] - svmParam.eta * gradW(j, w, b, xi, yi, 0, n, svmParam.c);
-				wNew[j] = tmp;
+			int ini = l * svmParam.batchSize;
+			int end = Math.min(n, (l + 1) * svmParam.batchSize);
+
+			grad.compute(w, b, xi, order, yi, ini, end, svmParam.c); // gradient using w from previous iteration
+			telemetry.gradientDone(end - ini);
+			b -= step.apply(w, grad);
+			l = (l + 1) % batches;
+			if (l == 0 && svmParam.physicalShuffle) { // new epoch: new row order in memory
+				int[] epochOrder = shuffledOrder(n, rgen);
+				xi.permute(epochOrder, yi);
+				monitor.rowsMoved(epochOrder);
 			}
-			w = wNew; // update w
-			
-			b += (-1.0 * svmParam.eta * gradB(w, b, xi, yi, 0, n, svmParam.c));
 
-			double fk = calcFk(w, b, xi, yi, svmParam.c);
-			double deltaCostPerc = deltaCostPerc(fk, fkMinus1);
-			shouldStop = deltaCostPerc < svmParam.eps;
-			System.out.println(String.format("Batch - K: %d | FK: %.2f | Error: %.2f ", k, fk, deltaCostPerc));
-			fkMinus1 = fk;
+			monitor.recordBatch(grad.hingeLoss, end - ini);
+			double[] wResult = w;
+			double bResult = b;
+			if (average != null && average.add(w, b)) { // the stopping rule follows the averaged w, which is the result
+				wResult = average.w;
+				bResult = average.b;
+			}
+			telemetry.updateDone();
+			if (monitor.evaluate(wResult, bResult, xi, yi)) {
+				shouldStop = monitor.shouldStop();
+				telemetry.evaluationDone();
+				if (telemetry.due(shouldStop)) {
+					telemetry.report(k, monitor.getFk(), monitor.getDeltaCost(), bResult, dot(wResult, wResult), shouldStop);
+				}
+			}
 			k++;
 		}
 
-		return new SVMResult(w, b);
+		if (average != null && average.started()) {
+			return new SVMResult(average.w, average.b, k);
+		}
+		return new SVMResult(w, b, k);
 	}
 
-	private double deltaCostPerc(double fk, double fkMinus1) {
-		if (fkMinus1 == Double.NEGATIVE_INFINITY)
-			return 1.0;
+	// Step of the mini batch according to the StepSchedule
+	static class StepRule {
+		private static final double ADAGRAD_EPS = 1e-8;
 
-		return Math.abs(fkMinus1 - fk) * 100 / fkMinus1;
+		private final StepSchedule schedule;
+		private final double eta; // CONSTANT: eta, ADAGRAD: adagradEta
+		private final double maxNorm2; // PEGASOS: squared radius of the ball w is projected onto
+		private final double[] sumGrad2; // ADAGRAD: sum of squared gradients per coordinate
+		private double sumGradB2;
+		private long t = 0;
+
+		StepRule(SVMParameter svmParam, int d) {
+			this.schedule = svmParam.schedule;
+			this.eta = schedule == StepSchedule.ADAGRAD ? svmParam.adagradEta : svmParam.eta;
+			this.maxNorm2 = (double) svmParam.c * svmParam.batchSize; // 1 / lambda
+			this.sumGrad2 = schedule == StepSchedule.ADAGRAD ? new double[d] : null;
+		}
+
+		// updates w with the gradient and returns the amount to subtract from b
+		double apply(double[] w, GradientEngine grad) {
+			t++;
+			switch (schedule) {
+			case PEGASOS:
+				double rate = 1.0 / t; // eta_t * lambda, with eta_t = 1 / (lambda t)
+				VECTOR_MATH.axpy(-rate, grad.gradW, w);
+				double norm2 = dot(w, w);
+				if (norm2 > maxNorm2) {
+					double f = Math.sqrt(maxNorm2 / norm2);
+					for (int j = 0; j < w.length; j++) {
+						w[j] *= f;
+					}
+				}
+				return rate * grad.gradB;
+			case ADAGRAD:
+				double[] g = grad.gradW;
+				for (int j = 0; j < g.length; j++) {
+					sumGrad2[j] += g[j] * g[j];
+					w[j] -= eta * g[j] / (Math.sqrt(sumGrad2[j]) + ADAGRAD_EPS);
+				}
+				sumGradB2 += grad.gradB * grad.gradB;
+				return eta * grad.gradB / (Math.sqrt(sumGradB2) + ADAGRAD_EPS);
+			default:
+				VECTOR_MATH.axpy(-eta, grad.gradW, w);
+				return eta * grad.gradB;
+			}
+		}
 	}
 
-	private double calcFk(double[] w, double b, double[][] xi, double[] yi, int C) {
-		int n = xi.length;
-		double sumWj2 = dot(w, w);
+	/**
+	 * Running average of the iterates (Polyak averaging). The first skip
+	 * iterates (an epoch) are left out, so the large early steps, e.g. the
+	 * 1 / t steps of PEGASOS on b, which is not projected, do not weigh in it.
+	 */
+	static class IterateAverage {
+		final double[] w;
+		double b;
+		private final long skip;
+		private long skipped = 0;
+		private long count = 0;
 
-		double sumL = 0;
-		for (int i = 0; i < n; i++) {
-			double wx = dot(w, xi[i]);
-			double h = 1 - yi[i] * (wx + b);
-			sumL += C * Math.max(0, h);
+		IterateAverage(double[] w0, double b0, long skip) {
+			this.w = w0.clone();
+			this.b = b0;
+			this.skip = skip;
 		}
 
-		double result = 0.5 * sumWj2 + sumL;
-		return result;
+		// returns true once the average has started
+		boolean add(double[] wt, double bt) {
+			if (skipped < skip) {
+				skipped++;
+				return false;
+			}
+
+			count++;
+			double f = 1.0 / count;
+			for (int j = 0; j < w.length; j++) {
+				w[j] += (wt[j] - w[j]) * f;
+			}
+			b += (bt - b) * f;
+			return true;
+		}
+
+		boolean started() {
+			return count > 0;
+		}
 	}
 
-	private double gradB(double[] w, double b, double[][] xi, double[] yi, int ini, int end, int C) {
-		double sumN = 0.0;
-		for (int i = ini; i < end; i++) {
-			double classResult = yi[i] * (dot(xi[i], w) + b);
-			if (classResult < 1) {
-				sumN += -yi[i];
+	/**
+	 * State of a training saved to disk: w, b, the step count k, the smoothed
+	 * delta cost of the stopping rule and, when used, the StepRule and
+	 * IterateAverage state. Written to a temporary file and then moved over
+	 * the previous checkpoint, so a crash while writing keeps the old one.
+	 * A model saved with saveModel is a checkpoint with only w, b and k.
+	 */
+	static class TrainingCheckpoint {
+		static final int MAGIC = 0x53564D43; // "SVMC"
+		static final int VERSION = 1;
+
+		double[] w;
+		double b;
+		int k;
+		double fkMinus1 = Double.NaN; // NaN: no stopping rule state
+		double deltaCostMinus1;
+		long steps;
+		long stepT; // StepRule
+		double[] sumGrad2; // StepRule (ADAGRAD), or null
+		double sumGradB2;
+		double[] averageW; // IterateAverage, or null
+		double averageB;
+		long averageCount;
+
+		// monitor, step and average may be null
+		static TrainingCheckpoint capture(double[] w, double b, int k, ConvergenceMonitor monitor, StepRule step,
+				IterateAverage average) {
+			TrainingCheckpoint c = new TrainingCheckpoint();
+			c.w = w.clone();
+			c.b = b;
+			c.k = k;
+			if (monitor != null) {
+				c.fkMinus1 = monitor.fkMinus1;
+				c.deltaCostMinus1 = monitor.deltaCostMinus1;
+				c.steps = monitor.steps;
+			}
+			if (step != null) {
+				c.stepT = step.t;
+				c.sumGrad2 = step.sumGrad2 == null ? null : step.sumGrad2.clone();
+				c.sumGradB2 = step.sumGradB2;
 			}
+			if (average != null) {
+				c.averageW = average.w.clone();
+				c.averageB = average.b;
+				c.averageCount = average.count;
+			}
+			return c;
 		}
 
-		double result = C * sumN;
-		return result;
+		// puts back the saved state (a part missing in the checkpoint keeps its initial state)
+		void restore(ConvergenceMonitor monitor, StepRule step, IterateAverage average) {
+			if (!Double.isNaN(fkMinus1)) {
+				monitor.restore(fkMinus1, deltaCostMinus1, steps);
+			}
+			step.t = stepT;
+			if (sumGrad2 != null && step.sumGrad2 != null) {
+				System.arraycopy(sumGrad2, 0, step.sumGrad2, 0, sumGrad2.length);
+				step.sumGradB2 = sumGradB2;
+			}
+			if (averageW != null && average != null) {
+				System.arraycopy(averageW, 0, average.w, 0, averageW.length);
+				average.b = averageB;
+				average.count = averageCount;
+				average.skipped = Math.min(average.skip, k); // one iterate was added per step
+			}
+		}
+
+		SVMResult toResult() {
+			return new SVMResult(w.clone(), b, k);
+		}
+
+		void write(String path) {
+			String tmpPath = path + ".tmp";
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPath)));
+				try {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					writeArray(out, w);
+					out.writeDouble(b);
+					out.writeInt(k);
+					out.writeDouble(fkMinus1);
+					out.writeDouble(deltaCostMinus1);
+					out.writeLong(steps);
+					out.writeLong(stepT);
+					writeArray(out, sumGrad2);
+					out.writeDouble(sumGradB2);
+					writeArray(out, averageW);
+					out.writeDouble(averageB);
+					out.writeLong(averageCount);
+				} finally {
+					out.close();
+				}
+				Files.move(Paths.get(tmpPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write checkpoint " + path, e);
+			}
+		}
+
+		static TrainingCheckpoint read(String path) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("Not an SVM checkpoint: " + path);
+				}
+				TrainingCheckpoint c = new TrainingCheckpoint();
+				c.w = readArray(in);
+				c.b = in.readDouble();
+				c.k = in.readInt();
+				c.fkMinus1 = in.readDouble();
+				c.deltaCostMinus1 = in.readDouble();
+				c.steps = in.readLong();
+				c.stepT = in.readLong();
+				c.sumGrad2 = readArray(in);
+				c.sumGradB2 = in.readDouble();
+				c.averageW = readArray(in);
+				c.averageB = in.readDouble();
+				c.averageCount = in.readLong();
+				return c;
+			} finally {
+				in.close();
+			}
+		}
+
+		// length (-1 for null) followed by the values
+		private static void writeArray(DataOutputStream out, double[] values) throws IOException {
+			if (values == null) {
+				out.writeInt(-1);
+				return;
+			}
+			out.writeInt(values.length);
+			for (double v : values) {
+				out.writeDouble(v);
+			}
+		}
+
+		private static double[] readArray(DataInputStream in) throws IOException {
+			int length = in.readInt();
+			if (length < 0)
+				return null;
+
+			double[] values = new double[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = in.readDouble();
+			}
+			return values;
+		}
+	}
+
+	// saves w and b, e.g. to warm start the training on new data with loadModel
+	public void saveModel(SVMResult model, String path) {
+		TrainingCheckpoint.capture(model.w, model.b, model.iterations, null, null, null).write(path);
 	}
 
-	private double gradW(int j, double[] w, double b, double[][] xi, double[] yi, int ini, int end, int C) {
-		double sumN = 0.0;
-		for (int i = ini; i < end; i++) {
-			double classResult = yi[i] * (dot(xi[i], w) + b);
-			if (classResult < 1) {
-				sumN += -yi[i] * xi[i][j];
+	public SVMResult loadModel(String path) throws IOException {
+		return TrainingCheckpoint.read(path).toResult();
+	}
+
+	// Mini batch over a sparse dataset: cost per step scales with the non-zeros of the batch
+	public SVMResult miniBatchGradDesc(SparseDataset xi, double[] yi, SVMParameter svmParam) {
+		ScaledVector w = new ScaledVector(xi.cols); // w for the SVM (result)
+		double b = 0; // b for the SVM (result)
+		boolean shouldStop = false;
+		int n = xi.rows; // number of training samples
+		int[] order = shuffledOrder(n); // shuffle the training data through the row order
+		ConvergenceMonitor monitor = new ConvergenceMonitor(svmParam, n);
+		double[] coef = new double[svmParam.batchSize]; // -y of the samples violating the margin
+		Telemetry telemetry = new Telemetry(svmParam, "Sparse SGD");
+
+		int k = 0;
+		int l = 0;
+		while (!shouldStop) {
+			int ini = l * svmParam.batchSize;
+			int end = Math.min(n, (l + 1) * svmParam.batchSize);
+
+			double sumB = 0.0;
+			double loss = 0.0;
+			for (int i = ini; i < end; i++) { // margins using w from previous iteration
+				int row = order[i];
+				double classResult = yi[row] * (w.dot(xi, row) + b);
+				coef[i - ini] = classResult < 1 ? -yi[row] : 0.0;
+				loss += Math.max(0, 1 - classResult);
+				sumB += coef[i - ini];
+			}
+			telemetry.gradientDone(end - ini);
+
+			// w - eta * (w + C * sum(-y x)) = (1 - eta) * w - eta * C * sum(-y x)
+			w.scale(1.0 - svmParam.eta);
+			for (int i = ini; i < end; i++) {
+				if (coef[i - ini] != 0.0) {
+					w.add(xi, order[i], -svmParam.eta * svmParam.c * coef[i - ini]);
+				}
+			}
+			b -= svmParam.eta * svmParam.c * sumB;
+			l = (l + 1) % ((n + svmParam.batchSize - 1) / svmParam.batchSize);
+
+			monitor.recordBatch(loss, end - ini);
+			telemetry.updateDone();
+			if (monitor.evaluate(w, b, xi, yi)) {
+				shouldStop = monitor.shouldStop();
+				telemetry.evaluationDone();
+				if (telemetry.due(shouldStop)) {
+					telemetry.report(k, monitor.getFk(), monitor.getDeltaCost(), b, w.squaredNorm(), shouldStop);
+				}
 			}
+			k++;
 		}
 
-		double result = w[j] + C * sumN;
-		return result;
+		return new SVMResult(w.toDense(), b, k);
 	}
 
-	// dot product between two vectors
-	private double dot(double[] a, double[] b) {
-		double sum = 0;
-		for(int i = 0; i < a.length; i++){
-			sum += a[i] * b[i];
+	private int[] shuffledOrder(int n) {
+		return shuffledOrder(n, new Random(System.currentTimeMillis()));
+	}
+
+	private int[] shuffledOrder(int n, Random rgen) {
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+
+		for (int i = 0; i < n; i++) {
+			int randomPosition = rgen.nextInt(n);
+			int temp = order[i];
+			order[i] = order[randomPosition];
+			order[randomPosition] = temp;
 		}
-		return sum;
+		return order;
 	}
 
-	// read the input files (features and target)
-	public double[][] readAsVectors(String filePath) throws IOException {
-		ArrayList<double[]> result = new ArrayList<double[]>();
-		FileReader fileReader = new FileReader(filePath);
-		BufferedReader br = new BufferedReader(fileReader);
-		String line;
-		while ((line = br.readLine()) != null) {
+	/**
+	 * Parallel SGD: svmParam.threads workers take disjoint shards of the
+	 * (shuffled) samples and update one shared w, without locks for HOGWILD.
+	 * Each worker runs mini batches of svmParam.batchSize over its shard;
+	 * the objective is evaluated once per epoch, after all workers are done.
+	 */
+	public SVMResult parallelSGD(double[][] xi, double[] yi, SVMParameter svmParam) {
+		int d = xi[0].length;
+		int n = xi.length;
+		int threads = Math.max(1, Math.min(svmParam.threads, n));
+		SharedWeights weights = new SharedWeights(d, svmParam.sharedUpdate);
+		ConvergenceMonitor monitor = new ConvergenceMonitor(svmParam, n);
+		int[] order = shuffledOrder(n);
+
+		List<SGDWorker> workers = new ArrayList<SGDWorker>();
+		for (int t = 0; t < threads; t++) {
+			int[] shard = Arrays.copyOfRange(order, (int) ((long) t * n / threads), (int) ((long) (t + 1) * n / threads));
+			workers.add(new SGDWorker(weights, xi, yi, shard, svmParam, t));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		double[] w = null;
+		double b = 0;
+		long trainingNanos = 0;
+		long samples = 0;
+		int epoch = 0;
+		Telemetry telemetry = new Telemetry(svmParam, "Parallel SGD");
+		try {
+			boolean shouldStop = false;
+			while (!shouldStop) {
+				long startTime = System.nanoTime();
+				for (Future<Void> f : executor.invokeAll(workers)) {
+					f.get();
+				}
+				trainingNanos += System.nanoTime() - startTime;
+				telemetry.gradientDone(n); // the workers' gradients and updates
+
+				for (SGDWorker worker : workers) {
+					monitor.recordSteps(worker.steps, worker.hingeLoss, worker.shard.length);
+				}
+				samples += n;
+
+				double[] wb = weights.toArray();
+				w = Arrays.copyOf(wb, d);
+				b = wb[d];
+				monitor.evaluateNow(w, b, xi, yi);
+				shouldStop = monitor.shouldStop();
+				telemetry.evaluationDone();
+				if (telemetry.due(shouldStop)) {
+					telemetry.report(epoch, monitor.getFk(), monitor.getDeltaCost(), b, dot(w, w), shouldStop);
+				}
+				epoch++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		double samplesPerSec = samples / (trainingNanos / 1e9);
+		System.out.println(String.format("Parallel SGD - Threads: %d | Update: %s | Epochs: %d | samples/sec: %.0f | samples/sec/thread: %.0f", threads, svmParam.sharedUpdate, epoch, samplesPerSec, samplesPerSec / threads));
+		return new SVMResult(w, b, epoch);
+	}
+
+	// One epoch of mini batches over a shard, writing to the shared weights
+	static class SGDWorker implements Callable<Void> {
+		private final SharedWeights weights;
+		private final double[][] xi;
+		private final double[] yi;
+		private final int[] shard;
+		private final SVMParameter svmParam;
+		private final Random rgen;
+		private final GradientEngine grad;
+		private final double[] wLocal; // copy of the shared weights when they can not be read in place
+		private final double[][] batchX;
+		private final double[] batchY;
+		long steps;
+		double hingeLoss;
+
+		SGDWorker(SharedWeights weights, double[][] xi, double[] yi, int[] shard, SVMParameter svmParam, int id) {
+			int d = xi[0].length;
+			this.weights = weights;
+			this.xi = xi;
+			this.yi = yi;
+			this.shard = shard;
+			this.svmParam = svmParam;
+			this.rgen = new Random(System.currentTimeMillis() + id);
+			this.grad = new GradientEngine(d);
+			this.wLocal = new double[d + 1];
+			this.batchX = new double[svmParam.batchSize][];
+			this.batchY = new double[svmParam.batchSize];
+		}
+
+		@Override
+		public Void call() {
+			steps = 0;
+			hingeLoss = 0;
+			for (int i = 0; i < shard.length; i++) { // new order of the shard for every epoch
+				int randomPosition = i + rgen.nextInt(shard.length - i);
+				int temp = shard[i];
+				shard[i] = shard[randomPosition];
+				shard[randomPosition] = temp;
+			}
+
+			int d = wLocal.length - 1;
+			for (int ini = 0; ini < shard.length; ini += svmParam.batchSize) {
+				int m = Math.min(svmParam.batchSize, shard.length - ini);
+				for (int i = 0; i < m; i++) {
+					batchX[i] = xi[shard[ini + i]];
+					batchY[i] = yi[shard[ini + i]];
+				}
+
+				double[] w = weights.read(wLocal); // w[d] is b
+				grad.compute(w, w[d], batchX, batchY, 0, m, svmParam.c);
+				weights.update(grad.gradW, grad.gradB, svmParam.eta);
+				hingeLoss += grad.hingeLoss;
+				steps++;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * w and b (at index d) shared by the parallel SGD workers. Reads are
+	 * never synchronized; writes follow the SharedUpdate mode.
+	 */
+	static class SharedWeights {
+		private static final int STRIPE_WIDTH = 64; // coordinates per lock for STRIPED
+
+		private final SharedUpdate mode;
+		private final int d;
+		private final double[] w; // HOGWILD and STRIPED
+		private final AtomicLongArray bits; // ATOMIC: raw bits of the doubles
+		private final Object[] locks; // STRIPED
+
+		SharedWeights(int d, SharedUpdate mode) {
+			this.mode = mode;
+			this.d = d;
+			this.w = mode == SharedUpdate.ATOMIC ? null : new double[d + 1];
+			this.bits = mode == SharedUpdate.ATOMIC ? new AtomicLongArray(d + 1) : null;
+			this.locks = new Object[mode == SharedUpdate.STRIPED ? (d + 1 + STRIPE_WIDTH - 1) / STRIPE_WIDTH : 0];
+			for (int s = 0; s < locks.length; s++) {
+				locks[s] = new Object();
+			}
+		}
+
+		// current weights: the shared array itself or a copy into local
+		double[] read(double[] local) {
+			if (mode != SharedUpdate.ATOMIC)
+				return w;
+
+			for (int j = 0; j <= d; j++) {
+				local[j] = Double.longBitsToDouble(bits.get(j));
+			}
+			return local;
+		}
+
+		// w -= eta * gradW and b -= eta * gradB
+		void update(double[] gradW, double gradB, double eta) {
+			switch (mode) {
+			case HOGWILD:
+				for (int j = 0; j < d; j++) {
+					w[j] -= eta * gradW[j];
+				}
+				w[d] -= eta * gradB;
+				break;
+			case ATOMIC:
+				for (int j = 0; j < d; j++) {
+					atomicAdd(j, -eta * gradW[j]);
+				}
+				atomicAdd(d, -eta * gradB);
+				break;
+			case STRIPED:
+				for (int s = 0; s < locks.length; s++) {
+					synchronized (locks[s]) {
+						int end = Math.min(d, (s + 1) * STRIPE_WIDTH);
+						for (int j = s * STRIPE_WIDTH; j < end; j++) {
+							w[j] -= eta * gradW[j];
+						}
+						if (s == d / STRIPE_WIDTH) { // stripe holding b
+							w[d] -= eta * gradB;
+						}
+					}
+				}
+				break;
+			}
+		}
+
+		private void atomicAdd(int j, double delta) {
+			long current;
+			long next;
+			do {
+				current = bits.get(j);
+				next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+			} while (!bits.compareAndSet(j, current, next));
+		}
+
+		double[] toArray() {
+			return read(new double[d + 1]).clone();
+		}
+	}
+
+	/**
+	 * Out-of-core mini batch training: the features and target files (CSV or
+	 * binary) are read in chunks of svmParam.chunkRows rows, so memory is
+	 * bounded by the chunk, the shuffle buffer and the batch. Rows go through
+	 * a shuffle buffer of svmParam.shuffleBufferRows rows: each incoming row
+	 * takes the slot of a random buffered row, which goes to the mini batch.
+	 * The stopping rule is the ConvergenceMonitor one; since the data is not
+	 * in memory, FULL is evaluated from the batch losses of each epoch
+	 * (as RUNNING_ESTIMATE), EVERY_N reads the files once per evaluation and
+	 * SAMPLE keeps its random sample of rows in memory.
+	 */
+	public SVMResult streamingGradDesc(String featuresPath, String targetPath, SVMParameter svmParam) throws IOException {
+		StreamingTrainer trainer = new StreamingTrainer(featuresPath, targetPath, svmParam);
+		boolean shouldStop = false;
+		while (!shouldStop) {
+			shouldStop = trainer.runEpoch();
+		}
+		return new SVMResult(trainer.w, trainer.b, trainer.k);
+	}
+
+	static class StreamingTrainer {
+		private final String featuresPath;
+		private final String targetPath;
+		private final SVMParameter svmParam;
+		private final Random rgen = new Random(System.currentTimeMillis());
+		private final int n;
+		private final ConvergenceMonitor monitor;
+		private final GradientEngine grad;
+		private final Telemetry telemetry;
+		private double[][] sampleX; // rows of the SAMPLE estimate
+		private double[] sampleY;
+		private final double[][] chunkX;
+		private final double[] chunkY;
+		private final double[][] bufferX;
+		private final double[] bufferY;
+		private final double[][] batchX;
+		private final double[] batchY;
+		private int batched = 0; // rows in the current batch
+		private double epochLoss = 0;
+		private int k = 0;
+		final double[] w; // w for the SVM (result)
+		double b = 0; // b for the SVM (result)
+
+		StreamingTrainer(String featuresPath, String targetPath, SVMParameter svmParam) throws IOException {
+			this.featuresPath = featuresPath;
+			this.targetPath = targetPath;
+			this.svmParam = svmParam;
+
+			RowStream stream = new RowStream(featuresPath, targetPath);
+			int d = stream.cols;
+			try {
+				if (svmParam.convergenceMode == ConvergenceMode.SAMPLE) {
+					this.n = sampleRows(stream, d);
+				} else {
+					this.n = stream.countRows();
+				}
+			} finally {
+				stream.close();
+			}
+
+			this.w = new double[d];
+			this.monitor = new ConvergenceMonitor(svmParam, n);
+			this.grad = new GradientEngine(d);
+			this.chunkX = new double[Math.max(1, svmParam.chunkRows)][d];
+			this.chunkY = new double[chunkX.length];
+			this.bufferX = new double[Math.max(1, svmParam.shuffleBufferRows)][d];
+			this.bufferY = new double[bufferX.length];
+			this.batchX = new double[svmParam.batchSize][d];
+			this.batchY = new double[svmParam.batchSize];
+			this.telemetry = new Telemetry(svmParam, "Streaming SGD");
+		}
+
+		// reservoir sample of sampleSize rows while counting the rows
+		private int sampleRows(RowStream stream, int d) throws IOException {
+			sampleX = new double[svmParam.sampleSize][d];
+			sampleY = new double[svmParam.sampleSize];
+			double[] row = new double[d];
+			int count = 0;
+			double y;
+			while (!Double.isNaN(y = stream.next(row))) {
+				int slot = count < sampleX.length ? count : rgen.nextInt(count + 1);
+				if (slot < sampleX.length) {
+					System.arraycopy(row, 0, sampleX[slot], 0, d);
+					sampleY[slot] = y;
+				}
+				count++;
+			}
+			sampleX = Arrays.copyOf(sampleX, Math.min(count, sampleX.length));
+			sampleY = Arrays.copyOf(sampleY, sampleX.length);
+			return count;
+		}
+
+		// one pass over the files; returns true when the stopping rule is met
+		boolean runEpoch() throws IOException {
+			int buffered = 0;
+			epochLoss = 0;
+			RowStream stream = new RowStream(featuresPath, targetPath);
+			try {
+				int read;
+				while ((read = stream.read(chunkX, chunkY)) > 0) {
+					for (int i = 0; i < read; i++) {
+						double[] row = chunkX[i];
+						if (buffered < bufferX.length) { // fill the buffer first
+							chunkX[i] = bufferX[buffered];
+							bufferX[buffered] = row;
+							bufferY[buffered] = chunkY[i];
+							buffered++;
+							continue;
+						}
+
+						// the incoming row takes the slot of a random buffered row, which goes to the batch
+						int slot = rgen.nextInt(bufferX.length);
+						chunkX[i] = batchX[batched];
+						batchX[batched] = bufferX[slot];
+						batchY[batched] = bufferY[slot];
+						bufferX[slot] = row;
+						bufferY[slot] = chunkY[i];
+						batched++;
+
+						if (batched == batchX.length && step()) {
+							return true;
+						}
+					}
+				}
+			} finally {
+				stream.close();
+			}
+
+			// end of the file: drain the buffer in random order
+			for (int i = 0; i < buffered; i++) {
+				int slot = i + rgen.nextInt(buffered - i);
+				double[] row = bufferX[slot];
+				bufferX[slot] = bufferX[i];
+				bufferX[i] = batchX[batched];
+				batchX[batched] = row;
+				batchY[batched] = bufferY[slot];
+				bufferY[slot] = bufferY[i];
+				batched++;
+
+				if ((batched == batchX.length || i == buffered - 1) && step()) {
+					return true;
+				}
+			}
+
+			ConvergenceMode mode = svmParam.convergenceMode;
+			if (mode == ConvergenceMode.EVERY_N || mode == ConvergenceMode.SAMPLE)
+				return false;
+
+			monitor.evaluateObjective(0.5 * dot(w, w) + svmParam.c * epochLoss);
+			return report();
+		}
+
+		// mini batch step over the rows in batchX; returns true when the stopping rule is met
+		private boolean step() throws IOException {
+			telemetry.mark(); // reading the rows is not part of the phases
+			grad.compute(w, b, batchX, batchY, 0, batched, svmParam.c); // gradient using w from previous iteration
+			telemetry.gradientDone(batched);
+			VECTOR_MATH.axpy(-svmParam.eta, grad.gradW, w);
+			b -= svmParam.eta * grad.gradB;
+			telemetry.updateDone();
+			monitor.recordBatch(grad.hingeLoss, batched);
+			epochLoss += grad.hingeLoss;
+			batched = 0;
+			k++;
+
+			if (svmParam.convergenceMode == ConvergenceMode.SAMPLE) {
+				monitor.evaluateObjective(0.5 * dot(w, w) + svmParam.c * hingeSum(sampleX, sampleY) * n / sampleX.length);
+			} else if (svmParam.convergenceMode == ConvergenceMode.EVERY_N && monitor.isEvaluationStep()) {
+				monitor.evaluateObjective(0.5 * dot(w, w) + svmParam.c * fileHingeSum());
+			} else {
+				return false;
+			}
+
+			telemetry.evaluationDone();
+			return report();
+		}
+
+		private double hingeSum(double[][] xi, double[] yi) {
+			double sumL = 0;
+			for (int i = 0; i < xi.length; i++) {
+				sumL += Math.max(0, 1 - yi[i] * (dot(w, xi[i]) + b));
+			}
+			return sumL;
+		}
+
+		// hinge loss over all the rows of the files, reading them in chunks
+		private double fileHingeSum() throws IOException {
+			double sumL = 0;
+			RowStream stream = new RowStream(featuresPath, targetPath);
+			try {
+				int read;
+				while ((read = stream.read(chunkX, chunkY)) > 0) {
+					for (int i = 0; i < read; i++) {
+						sumL += Math.max(0, 1 - chunkY[i] * (dot(w, chunkX[i]) + b));
+					}
+				}
+			} finally {
+				stream.close();
+			}
+			return sumL;
+		}
+
+		// returns the stop decision, reporting the progress if due
+		private boolean report() {
+			boolean shouldStop = monitor.shouldStop();
+			if (telemetry.due(shouldStop)) {
+				telemetry.report(k, monitor.getFk(), monitor.getDeltaCost(), b, dot(w, w), shouldStop);
+			}
+			return shouldStop;
+		}
+	}
+
+	/**
+	 * Sequential reader of the features and target files, each either CSV or
+	 * binary (BINARY_EXTENSION), returning one (x, y) row at a time.
+	 */
+	static class RowStream implements Closeable {
+		private final RowSource features;
+		private final RowSource target;
+		final int cols;
+		private final double[] targetRow = new double[1];
+
+		RowStream(String featuresPath, String targetPath) throws IOException {
+			this.features = RowSource.open(featuresPath);
+			this.target = RowSource.open(targetPath);
+			this.cols = features.cols;
+		}
+
+		// reads the next row into x and returns its target, or NaN at the end of the files
+		double next(double[] x) throws IOException {
+			if (!features.next(x) || !target.next(targetRow))
+				return Double.NaN;
+			return targetRow[0];
+		}
+
+		// reads up to x.length rows into x and y, returns the number of rows read
+		int read(double[][] x, double[] y) throws IOException {
+			int count = 0;
+			while (count < x.length) {
+				double value = next(x[count]);
+				if (Double.isNaN(value))
+					break;
+				y[count++] = value;
+			}
+			return count;
+		}
+
+		// rows left in the files (consumes the stream)
+		int countRows() throws IOException {
+			return features.countRows();
+		}
+
+		@Override
+		public void close() throws IOException {
+			features.close();
+			target.close();
+		}
+	}
+
+	// One file of a RowStream
+	static class RowSource implements Closeable {
+		private final MappedDataset mapped; // binary file
+		private final BufferedReader reader; // CSV file
+		private String pendingLine; // CSV line read ahead
+		private int next = 0; // next row of the binary file
+		final int cols;
+
+		private RowSource(MappedDataset mapped, BufferedReader reader, String pendingLine, int cols) {
+			this.mapped = mapped;
+			this.reader = reader;
+			this.pendingLine = pendingLine;
+			this.cols = cols;
+		}
+
+		static RowSource open(String filePath) throws IOException {
+			if (filePath.endsWith(BINARY_EXTENSION)) {
+				MappedDataset mapped = MappedDataset.open(filePath);
+				return new RowSource(mapped, null, null, mapped.cols);
+			}
+
+			BufferedReader reader = new BufferedReader(new FileReader(filePath), 1 << 16);
+			String firstLine = nextLine(reader);
+			int cols = firstLine == null ? 0 : firstLine.split(",").length;
+			return new RowSource(null, reader, firstLine, cols);
+		}
+
+		boolean next(double[] dst) throws IOException {
+			if (mapped != null) {
+				if (next == mapped.rows)
+					return false;
+				mapped.row(next++, dst);
+				return true;
+			}
+
+			String line = pendingLine != null ? pendingLine : nextLine(reader);
+			pendingLine = null;
+			if (line == null)
+				return false;
+
+			int start = 0;
+			for (int j = 0; j < cols; j++) {
+				int comma = line.indexOf(',', start);
+				int stop = comma < 0 ? line.length() : comma;
+				dst[j] = Double.parseDouble(line.substring(start, stop));
+				start = stop + 1;
+			}
+			return true;
+		}
+
+		int countRows() throws IOException {
+			if (mapped != null)
+				return mapped.rows - next;
+
+			int count = pendingLine != null ? 1 : 0;
+			pendingLine = null;
+			while (nextLine(reader) != null) {
+				count++;
+			}
+			return count;
+		}
+
+		// next line that is not blank, as readAsVectors skips them
+		private static String nextLine(BufferedReader reader) throws IOException {
+			String line = reader.readLine();
+			while (line != null && line.length() == 0) {
+				line = reader.readLine();
+			}
+			return line;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
+	private void shuffle(double[][] xi, double[] yi) {
+		Random rgen = new Random(System.currentTimeMillis());
+		for (int i = 0; i < xi.length; i++) {
+		    int randomPosition = rgen.nextInt(xi.length);
+		    double[] temp = xi[i];
+		    xi[i] = xi[randomPosition];
+		    xi[randomPosition] = temp;
+		    double fxTmp = yi[i];
+		    yi[i] = yi[randomPosition];
+		    yi[randomPosition] = fxTmp;
+		}
+	}
+	
+	public SVMResult batchGradient(double[][] xi, double[] yi, SVMParameter svmParam) {
+		return batchGradient(xi, null, yi, svmParam, null, 0);
+	}
+
+	// Batch over float32 features (see toFloat)
+	public SVMResult batchGradient(float[][] xi, double[] yi, SVMParameter svmParam) {
+		return batchGradient(null, xi, yi, svmParam, null, 0);
+	}
+
+	// Batch starting from a previous result (warm start) instead of w = 0 and b = 0
+	public SVMResult batchGradient(double[][] xi, double[] yi, SVMParameter svmParam, SVMResult init) {
+		return batchGradient(xi, null, yi, svmParam, init, 0);
+	}
+
+	// Batch continuing from the checkpoint at svmParam.checkpointPath
+	public SVMResult resumeBatchGradient(double[][] xi, double[] yi, SVMParameter svmParam) throws IOException {
+		TrainingCheckpoint resume = TrainingCheckpoint.read(svmParam.checkpointPath);
+		return batchGradient(xi, null, yi, svmParam, resume.toResult(), resume.k);
+	}
+
+	// xi or xf is null; init (or null) gives the starting w and b, k0 the first iteration number
+	private SVMResult batchGradient(double[][] xi, float[][] xf, double[] yi, SVMParameter svmParam, SVMResult init,
+			int k0) {
+		int d = xi != null ? xi[0].length : xf[0].length;
+		double[] w = init == null ? new double[d] : init.w.clone();
+		double b = init == null ? 0 : init.b;
+		int k = k0;
+		boolean shouldStop = false;
+		int n = yi.length;
+		ForkJoinPool pool = svmParam.threads > 1 ? new ForkJoinPool(svmParam.threads) : null;
+		GradientEngine grad = new GradientEngine(d);
+		Telemetry telemetry = new Telemetry(svmParam, "Batch");
+
+		try {
+			// the pass computing the gradient at w also gives f(w), so each iteration reads the data once
+			computeGradient(grad, w, b, xi, xf, yi, n, svmParam.c, pool);
+			double fkMinus1 = grad.objective(w, svmParam.c); // f0
+			telemetry.mark();
+
+			while (!shouldStop) {
+				VECTOR_MATH.axpy(-svmParam.eta, grad.gradW, w); // update using w from prev iteration
+				b -= svmParam.eta * grad.gradB;
+				telemetry.updateDone();
+
+				computeGradient(grad, w, b, xi, xf, yi, n, svmParam.c, pool); // also gives the objective
+				double fk = grad.objective(w, svmParam.c);
+				telemetry.gradientDone(n);
+				double deltaCostPerc = deltaCostPerc(fk, fkMinus1);
+				shouldStop = deltaCostPerc < svmParam.eps;
+				if (telemetry.due(shouldStop)) {
+					telemetry.report(k, fk, deltaCostPerc, b, dot(w, w), shouldStop);
+				}
+				fkMinus1 = fk;
+				k++;
+				if (svmParam.checkpointPath != null && k % svmParam.checkpointEvery == 0) {
+					TrainingCheckpoint.capture(w, b, k, null, null, null).write(svmParam.checkpointPath);
+				}
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		return new SVMResult(w, b, k);
+	}
+
+	private void computeGradient(GradientEngine grad, double[] w, double b, double[][] xi, float[][] xf, double[] yi,
+			int n, int C, ForkJoinPool pool) {
+		// blocked even without a pool, so the gradient does not depend on the number of threads
+		if (xf != null) {
+			grad.compute(w, b, xf, yi, 0, n, C, pool);
+		} else {
+			grad.compute(w, b, xi, yi, 0, n, C, pool);
+		}
+	}
+
+	private static double deltaCostPerc(double fk, double fkMinus1) {
+		if (fkMinus1 == Double.NEGATIVE_INFINITY)
+			return 1.0;
+
+		return Math.abs(fkMinus1 - fk) * 100 / fkMinus1;
+	}
+
+	static double calcFk(double[] w, double b, double[][] xi, double[] yi, int C) {
+		return calcFk(w, b, xi, yi, Double.NaN, C);
+	}
+
+	// labels yi against the class positive, or +1 / -1 targets yi when it is NaN
+	static double calcFk(double[] w, double b, double[][] xi, double[] yi, double positive, int C) {
+		int n = xi.length;
+		double sumWj2 = dot(w, w);
+
+		double sumL = 0;
+		for (int i = 0; i < n; i++) {
+			double wx = dot(w, xi[i]);
+			double h = 1 - target(yi, i, positive) * (wx + b);
+			sumL += C * Math.max(0, h);
+		}
+
+		double result = 0.5 * sumWj2 + sumL;
+		return result;
+	}
+
+	// +1 / -1 target of row i: yi[i] itself, or whether the label yi[i] is the class positive (one-vs-rest)
+	static double target(double[] yi, int i, double positive) {
+		if (Double.isNaN(positive))
+			return yi[i];
+
+		return yi[i] == positive ? 1 : -1;
+	}
+
+	static double calcFk(double[] w, double b, Dataset xi, double[] yi, int C) {
+		int n = xi.rows();
+		double sumL = 0;
+		for (int i = 0; i < n; i++) {
+			double h = 1 - yi[i] * (xi.dot(i, w) + b);
+			sumL += C * Math.max(0, h);
+		}
+
+		double result = 0.5 * dot(w, w) + sumL;
+		return result;
+	}
+
+	static double calcFk(ScaledVector w, double b, SparseDataset xi, double[] yi, int C) {
+		double sumL = 0;
+		for (int i = 0; i < xi.rows; i++) {
+			double h = 1 - yi[i] * (w.dot(xi, i) + b);
+			sumL += C * Math.max(0, h);
+		}
+
+		double result = 0.5 * w.squaredNorm() + sumL;
+		return result;
+	}
+
+	/**
+	 * Progress of a training reported to a TrainingListener. The same instance
+	 * is filled again for every report, so a listener copies what it keeps.
+	 */
+	static class TrainingProgress {
+		public String trainer;
+		public long iteration; // step (epoch for the parallel SGD)
+		public double objective;
+		public double deltaCost;
+		public double b;
+		public double wNorm2; // |w|^2
+		public double samplesPerSec; // since the previous report
+		public long gradientNanos; // time in each phase since the previous report
+		public long updateNanos;
+		public long evaluationNanos;
+		public boolean last; // final report of the training
+	}
+
+	// Receives the progress of the trainings (SVMParameter.listener)
+	interface TrainingListener {
+		void onProgress(TrainingProgress progress);
+	}
+
+	// One line per report on the console (the default listener)
+	static class ConsoleListener implements TrainingListener {
+		@Override
+		public void onProgress(TrainingProgress p) {
+			System.out.println(String.format("%s - K: %d | FK: %.4f | Error: %.4f | b: %.4f | |w|: %.4f | samples/sec: %.0f",
+					p.trainer, p.iteration, p.objective, p.deltaCost, p.b, p.wNorm2, p.samplesPerSec));
+		}
+	}
+
+	enum TelemetryFormat {
+		CSV, JSON
+	}
+
+	// Writes every report as a CSV row or a JSON object per line
+	static class TelemetryWriter implements TrainingListener, Closeable {
+		private final Writer out;
+		private final TelemetryFormat format;
+		private final StringBuilder line = new StringBuilder();
+
+		public TelemetryWriter(String path, TelemetryFormat format) throws IOException {
+			this.out = new BufferedWriter(new FileWriter(path), 1 << 16);
+			this.format = format;
+			if (format == TelemetryFormat.CSV) {
+				out.write("trainer,iteration,objective,delta,b,w_norm2,samples_per_sec,gradient_ns,update_ns,evaluation_ns,last\n");
+			}
+		}
+
+		@Override
+		public synchronized void onProgress(TrainingProgress p) {
+			line.setLength(0);
+			if (format == TelemetryFormat.CSV) {
+				line.append(p.trainer).append(',').append(p.iteration).append(',').append(p.objective).append(',')
+						.append(p.deltaCost).append(',').append(p.b).append(',').append(p.wNorm2).append(',')
+						.append(p.samplesPerSec).append(',').append(p.gradientNanos).append(',').append(p.updateNanos)
+						.append(',').append(p.evaluationNanos).append(',').append(p.last);
+			} else {
+				line.append("{\"trainer\":\"").append(p.trainer).append("\",\"iteration\":").append(p.iteration)
+						.append(",\"objective\":").append(p.objective).append(",\"delta\":").append(p.deltaCost)
+						.append(",\"b\":").append(p.b).append(",\"w_norm2\":").append(p.wNorm2)
+						.append(",\"samples_per_sec\":").append(p.samplesPerSec).append(",\"gradient_ns\":")
+						.append(p.gradientNanos).append(",\"update_ns\":").append(p.updateNanos)
+						.append(",\"evaluation_ns\":").append(p.evaluationNanos).append(",\"last\":").append(p.last)
+						.append('}');
+			}
+			line.append('\n');
+			try {
+				out.append(line);
+				if (p.last) {
+					out.flush();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Progress reports of one training to svmParam.listener, at most one every
+	 * svmParam.telemetryIntervalMs and always one at the end. The phase
+	 * methods split the time since the previous phase. Without a listener the
+	 * trainers pay a null check: no clock reads, no formatting, no allocation.
+	 */
+	static class Telemetry {
+		private final TrainingListener listener;
+		private final long intervalNanos;
+		private final TrainingProgress progress = new TrainingProgress();
+		private long lastReport;
+		private long mark; // end of the previous phase
+		private long samples; // since the previous report
+
+		Telemetry(SVMParameter svmParam, String trainer) {
+			this.listener = svmParam.listener;
+			this.intervalNanos = svmParam.telemetryIntervalMs * 1000000L;
+			this.progress.trainer = trainer;
+			if (listener != null) {
+				lastReport = System.nanoTime();
+				mark = lastReport;
+			}
+		}
+
+		// start of a phase not following another one (e.g. after reading rows)
+		void mark() {
+			if (listener != null) {
+				mark = System.nanoTime();
+			}
+		}
+
+		void gradientDone(long batchSamples) {
+			if (listener != null) {
+				long now = System.nanoTime();
+				progress.gradientNanos += now - mark;
+				mark = now;
+				samples += batchSamples;
+			}
+		}
+
+		void updateDone() {
+			if (listener != null) {
+				long now = System.nanoTime();
+				progress.updateNanos += now - mark;
+				mark = now;
+			}
+		}
+
+		void evaluationDone() {
+			if (listener != null) {
+				long now = System.nanoTime();
+				progress.evaluationNanos += now - mark;
+				mark = now;
+			}
+		}
+
+		// checked before report, so |w| is only computed for the reports actually sent
+		boolean due(boolean last) {
+			return listener != null && (last || System.nanoTime() - lastReport >= intervalNanos);
+		}
+
+		void report(long iteration, double objective, double deltaCost, double b, double wNorm2, boolean last) {
+			long now = System.nanoTime();
+			progress.iteration = iteration;
+			progress.objective = objective;
+			progress.deltaCost = deltaCost;
+			progress.b = b;
+			progress.wNorm2 = wNorm2;
+			progress.samplesPerSec = samples / Math.max(1e-9, (now - lastReport) / 1e9);
+			progress.last = last;
+			listener.onProgress(progress);
+
+			progress.gradientNanos = 0;
+			progress.updateNanos = 0;
+			progress.evaluationNanos = 0;
+			samples = 0;
+			lastReport = System.nanoTime(); // the listener time is left out of the phases
+			mark = lastReport;
+		}
+	}
+
+	/**
+	 * Stopping rule of the mini batch modes. The objective f(w, b) is obtained
+	 * according to the ConvergenceMode and the stop decision is the same
+	 * smoothed rule as the full evaluation: 0.5 * delta(k-1) + 0.5 * deltaCostPerc < eps.
+	 */
+	static class ConvergenceMonitor {
+		private final ConvergenceMode mode;
+		private final int n;
+		private final int C;
+		private final double eps;
+		private final int evalEvery;
+		private final double targetFk;
+		private final long maxIterations;
+		private int[] sample; // rows of the SAMPLE estimate
+		double positive = Double.NaN; // one-vs-rest class of the double[][] rows (see SVM.target)
+
+		private double fkMinus1;
+		private double deltaCostMinus1 = 0;
+		private double fk;
+		private double deltaCost;
+		private long steps = 0;
+		private long stepsAtLastEval = 0;
+		private double epochLoss = 0; // batch losses accumulated since the last evaluation
+		private long epochSamples = 0; // samples in epochLoss
+
+		public ConvergenceMonitor(SVMParameter svmParam, int n) {
+			this.mode = svmParam.convergenceMode;
+			this.n = n;
+			this.C = svmParam.c;
+			this.eps = svmParam.eps;
+			this.evalEvery = Math.max(1, svmParam.evalEvery);
+			this.targetFk = svmParam.targetFk;
+			this.maxIterations = svmParam.maxIterations;
+			this.fkMinus1 = (double) C * n; // f0: w = 0 and b = 0 => every hinge loss is 1
+
+			if (mode == ConvergenceMode.SAMPLE) {
+				int h = Math.min(n, svmParam.sampleSize);
+				int[] rows = new int[n];
+				for (int i = 0; i < n; i++) {
+					rows[i] = i;
+				}
+				Random rgen = new Random(System.currentTimeMillis());
+				for (int i = 0; i < h; i++) { // partial Fisher-Yates
+					int randomPosition = i + rgen.nextInt(n - i);
+					int temp = rows[i];
+					rows[i] = rows[randomPosition];
+					rows[randomPosition] = temp;
+				}
+				this.sample = Arrays.copyOf(rows, h);
+			}
+		}
+
+		// losses (without C) of the batch, computed while building its gradient
+		public void recordBatch(double hingeLoss, int batchSize) {
+			epochLoss += hingeLoss;
+			epochSamples += batchSize;
+			steps++;
+		}
+
+		// f0 when the training does not start from w = 0 and b = 0
+		public void setInitialObjective(double f0) {
+			this.fkMinus1 = f0;
+		}
+
+		// state of the stopping rule saved by a TrainingCheckpoint
+		void restore(double fkMinus1, double deltaCostMinus1, long steps) {
+			this.fkMinus1 = fkMinus1;
+			this.fk = fkMinus1;
+			this.deltaCostMinus1 = deltaCostMinus1;
+			this.deltaCost = deltaCostMinus1;
+			this.steps = steps;
+			this.stepsAtLastEval = steps;
+		}
+
+		// several steps done outside of the monitor, e.g. a whole epoch of the parallel SGD
+		public void recordSteps(long stepCount, double hingeLoss, long samples) {
+			epochLoss += hingeLoss;
+			epochSamples += samples;
+			steps += stepCount;
+		}
+
+		// returns true if the objective was evaluated in this step
+		public boolean evaluate(double[] w, double b, double[][] xi, double[] yi) {
+			if (!isEvaluationStep())
+				return false;
+
+			evaluateNow(w, b, xi, yi);
+			return true;
+		}
+
+		// evaluates the objective regardless of the step count
+		public void evaluateNow(double[] w, double b, double[][] xi, double[] yi) {
+			if (mode == ConvergenceMode.SAMPLE) {
+				double sumL = 0;
+				for (int i : sample) {
+					sumL += Math.max(0, 1 - target(yi, i, positive) * (dot(w, xi[i]) + b));
+				}
+				evaluateObjective(0.5 * dot(w, w) + C * sumL * n / sample.length);
+			} else if (mode == ConvergenceMode.RUNNING_ESTIMATE) {
+				evaluateObjective(0.5 * dot(w, w) + C * runningLoss());
+			} else {
+				evaluateObjective(calcFk(w, b, xi, yi, positive, C));
+			}
+		}
+
+		// returns true if the objective was evaluated in this step
+		public boolean evaluate(double[] w, double b, Dataset xi, double[] yi) {
+			if (!isEvaluationStep())
+				return false;
+
+			if (mode == ConvergenceMode.SAMPLE) {
+				double sumL = 0;
+				for (int i : sample) {
+					sumL += Math.max(0, 1 - yi[i] * (xi.dot(i, w) + b));
+				}
+				evaluateObjective(0.5 * dot(w, w) + C * sumL * n / sample.length);
+			} else if (mode == ConvergenceMode.RUNNING_ESTIMATE) {
+				evaluateObjective(0.5 * dot(w, w) + C * runningLoss());
+			} else {
+				evaluateObjective(calcFk(w, b, xi, yi, C));
+			}
+			return true;
+		}
+
+		// the rows were reordered (row order[i] is now at i): SAMPLE keeps following the same samples
+		public void rowsMoved(int[] order) {
+			if (sample == null)
+				return;
+
+			int[] newPosition = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				newPosition[order[i]] = i;
+			}
+			for (int h = 0; h < sample.length; h++) {
+				sample[h] = newPosition[sample[h]];
+			}
+		}
+
+		// returns true if the objective was evaluated in this step
+		public boolean evaluate(ScaledVector w, double b, SparseDataset xi, double[] yi) {
+			if (!isEvaluationStep())
+				return false;
+
+			if (mode == ConvergenceMode.SAMPLE) {
+				double sumL = 0;
+				for (int i : sample) {
+					sumL += Math.max(0, 1 - yi[i] * (w.dot(xi, i) + b));
+				}
+				evaluateObjective(0.5 * w.squaredNorm() + C * sumL * n / sample.length);
+			} else if (mode == ConvergenceMode.RUNNING_ESTIMATE) {
+				evaluateObjective(0.5 * w.squaredNorm() + C * runningLoss());
+			} else {
+				evaluateObjective(calcFk(w, b, xi, yi, C));
+			}
+			return true;
+		}
+
+		public boolean shouldStop() {
+			return deltaCost < eps || fk <= targetFk || steps >= maxIterations;
+		}
+
+		public double getFk() {
+			return fk;
+		}
+
+		public double getDeltaCost() {
+			return deltaCost;
+		}
+
+		public boolean isEvaluationStep() {
+			if (mode == ConvergenceMode.RUNNING_ESTIMATE)
+				return epochSamples >= n; // the batch losses of a whole epoch cover the data
+
+			return mode != ConvergenceMode.EVERY_N || steps % evalEvery == 0;
+		}
+
+		private double runningLoss() {
+			double result = epochLoss * n / epochSamples;
+			epochLoss = 0;
+			epochSamples = 0;
+			return result;
+		}
+
+		// objective computed by the caller, e.g. by the streaming trainer
+		public void evaluateObjective(double newFk) {
+			fk = newFk;
+			if (steps == stepsAtLastEval) // evaluated again without a step in between: no change to smooth
+				return;
+
+			stepsAtLastEval = steps;
+			deltaCost = 0.5 * deltaCostMinus1 + 0.5 * deltaCostPerc(fk, fkMinus1);
+			deltaCostMinus1 = deltaCost;
+			fkMinus1 = fk;
+		}
+	}
+
+	/**
+	 * Gradient of the SVM objective over the samples [ini, end). The margin of
+	 * each sample is computed only once per step and reused for every
+	 * dimension of w and for b, so a step costs O(batch * d). The hinge loss of
+	 * the range comes out of the same pass. Rows are either double[] or, in
+	 * the float32 storage mode, float[].
+	 */
+	static class GradientEngine {
+		static final int ROWS_PER_TASK = 1024; // rows per fork/join leaf in the parallel mode
+
+		final double[] gradW;
+		double gradB;
+		double hingeLoss; // sum of max(0, 1 - y(w.x + b)) over the range, without C
+		private double[] coef = new double[0]; // -y of the rows violating the margin, 0 otherwise
+		private GradientEngine[] partials; // partial sums per block of ROWS_PER_TASK rows
+		double positive = Double.NaN; // one-vs-rest class of the double[][] / float[][] rows (see SVM.target)
+
+		GradientEngine(int d) {
+			this.gradW = new double[d];
+		}
+
+		void compute(double[] w, double b, double[][] xi, double[] yi, int ini, int end, int C) {
+			accumulate(w, b, xi, null, yi, ini, end);
+			finish(w, C);
+		}
+
+		void compute(double[] w, double b, float[][] xi, double[] yi, int ini, int end, int C) {
+			accumulate(w, b, null, xi, yi, ini, end);
+			finish(w, C);
+		}
+
+		/**
+		 * Rows [ini, end) of a FlatDataset, through the permutation order
+		 * (row order[i] and yi[order[i]]) or directly when order is null.
+		 */
+		void compute(double[] w, double b, FlatDataset xi, int[] order, double[] yi, int ini, int end, int C) {
+			if (coef.length < end - ini) {
+				coef = new double[end - ini];
+			}
+
+			double sumB = 0.0;
+			double loss = 0.0;
+			for (int i = ini; i < end; i++) {
+				int row = order == null ? i : order[i];
+				double y = yi[row];
+				double classResult = y * (xi.dot(row, w) + b);
+				if (classResult < 1) {
+					loss += 1 - classResult;
+					sumB += -y;
+					coef[i - ini] = -y;
+				} else {
+					coef[i - ini] = 0.0;
+				}
+			}
+
+			Arrays.fill(gradW, 0.0);
+			for (int i = ini; i < end; i++) {
+				if (coef[i - ini] != 0.0) {
+					int row = order == null ? i : order[i];
+					VECTOR_MATH.axpy(coef[i - ini], xi.data, xi.offset(row), gradW, xi.cols);
+				}
+			}
+			gradB = sumB;
+			hingeLoss = loss;
+			finish(w, C);
+		}
+
+		/**
+		 * Same as compute, with the rows split in fork/join tasks of
+		 * ROWS_PER_TASK rows. The split points and the order in which the
+		 * partial sums are added depend only on [ini, end), so the result is
+		 * the same for any number of threads. Without a pool (one thread) the
+		 * same blocks are summed inline in the same order.
+		 */
+		void compute(double[] w, double b, double[][] xi, double[] yi, int ini, int end, int C, ForkJoinPool pool) {
+			compute(w, b, xi, null, yi, ini, end, C, pool);
+		}
+
+		void compute(double[] w, double b, float[][] xi, double[] yi, int ini, int end, int C, ForkJoinPool pool) {
+			compute(w, b, null, xi, yi, ini, end, C, pool);
+		}
+
+		private void compute(double[] w, double b, double[][] xi, float[][] xf, double[] yi, int ini, int end, int C,
+				ForkJoinPool pool) {
+			int blocks = (end - ini + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+			if (partials == null || partials.length < blocks) {
+				partials = new GradientEngine[blocks];
+				for (int i = 0; i < blocks; i++) {
+					partials[i] = new GradientEngine(gradW.length);
+					partials[i].positive = positive;
+				}
+			}
+
+			GradientTask task = new GradientTask(partials, w, b, xi, xf, yi, ini, end, 0, blocks);
+			if (pool == null) {
+				task.computeInline();
+			} else {
+				pool.invoke(task);
+			}
+
+			System.arraycopy(partials[0].gradW, 0, gradW, 0, gradW.length);
+			gradB = partials[0].gradB;
+			hingeLoss = partials[0].hingeLoss;
+			finish(w, C);
+		}
+
+		// objective f(w, b) at the w the gradient was computed for
+		double objective(double[] w, int C) {
+			return 0.5 * dot(w, w) + C * hingeLoss;
+		}
+
+		// sum(-y x), sum(-y) and the hinge loss of the samples violating the margin (xi or xf is null)
+		private void accumulate(double[] w, double b, double[][] xi, float[][] xf, double[] yi, int ini, int end) {
+			if (coef.length < end - ini) {
+				coef = new double[end - ini];
+			}
+
+			double sumB = 0.0;
+			double loss = 0.0;
+			for (int i = ini; i < end; i++) {
+				double y = target(yi, i, positive);
+				double classResult = y * ((xf == null ? dot(xi[i], w) : VECTOR_MATH.dot(xf[i], w)) + b);
+				if (classResult < 1) {
+					loss += 1 - classResult;
+					sumB += -y;
+					coef[i - ini] = -y;
+				} else {
+					coef[i - ini] = 0.0;
+				}
+			}
+
+			Arrays.fill(gradW, 0.0);
+			if (xf == null) {
+				VECTOR_MATH.maskedAxpy(coef, xi, ini, end, gradW);
+			} else {
+				VECTOR_MATH.maskedAxpy(coef, xf, ini, end, gradW);
+			}
+			gradB = sumB;
+			hingeLoss = loss;
+		}
+
+		private void add(GradientEngine other) {
+			VECTOR_MATH.axpy(1.0, other.gradW, gradW);
+			gradB += other.gradB;
+			hingeLoss += other.hingeLoss;
+		}
+
+		private void finish(double[] w, int C) {
+			for (int j = 0; j < gradW.length; j++) {
+				gradW[j] = w[j] + C * gradW[j];
+			}
+			gradB = C * gradB;
+		}
+	}
+
+	// Fork/join task over the blocks [fromBlock, toBlock); the sum is left in partials[fromBlock]
+	@SuppressWarnings("serial")
+	static class GradientTask extends RecursiveAction {
+		private final GradientEngine[] partials;
+		private final double[] w;
+		private final double b;
+		private final double[][] xi;
+		private final float[][] xf;
+		private final double[] yi;
+		private final int ini;
+		private final int end;
+		private final int fromBlock;
+		private final int toBlock;
+
+		GradientTask(GradientEngine[] partials, double[] w, double b, double[][] xi, float[][] xf, double[] yi, int ini,
+				int end, int fromBlock, int toBlock) {
+			this.partials = partials;
+			this.w = w;
+			this.b = b;
+			this.xi = xi;
+			this.xf = xf;
+			this.yi = yi;
+			this.ini = ini;
+			this.end = end;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+		}
+
+		@Override
+		protected void compute() {
+			if (toBlock - fromBlock == 1) {
+				int rowIni = ini + fromBlock * GradientEngine.ROWS_PER_TASK;
+				int rowEnd = Math.min(end, rowIni + GradientEngine.ROWS_PER_TASK);
+				partials[fromBlock].accumulate(w, b, xi, xf, yi, rowIni, rowEnd);
+				return;
+			}
+
+			int mid = (fromBlock + toBlock) >>> 1;
+			invokeAll(new GradientTask(partials, w, b, xi, xf, yi, ini, end, fromBlock, mid),
+					new GradientTask(partials, w, b, xi, xf, yi, ini, end, mid, toBlock));
+			partials[fromBlock].add(partials[mid]);
+		}
+
+		// same splits and sums as compute(), on the calling thread
+		void computeInline() {
+			if (toBlock - fromBlock == 1) {
+				compute();
+				return;
+			}
+
+			int mid = (fromBlock + toBlock) >>> 1;
+			new GradientTask(partials, w, b, xi, xf, yi, ini, end, fromBlock, mid).computeInline();
+			new GradientTask(partials, w, b, xi, xf, yi, ini, end, mid, toBlock).computeInline();
+			partials[fromBlock].add(partials[mid]);
+		}
+	}
+
+	// dot product between two vectors
+	static double dot(double[] a, double[] b) {
+		return VECTOR_MATH.dot(a, b);
+	}
+
+	/**
+	 * Vector kernels of the training. All of them work over the length of
+	 * their first (x) argument, the other vector may be longer.
+	 */
+	interface VectorMath {
+		double dot(double[] a, double[] b);
+
+		double dot(float[] a, double[] b);
+
+		// y += a * x
+		void axpy(double a, double[] x, double[] y);
+
+		// dot product between a[offset .. offset + length) and b[0 .. length)
+		double dot(double[] a, int offset, double[] b, int length);
+
+		// y[0 .. length) += a * x[offset .. offset + length)
+		void axpy(double a, double[] x, int offset, double[] y, int length);
+
+		// y += coef[i - ini] * x[i] for every row i in [ini, end); rows with coef 0 are skipped
+		void maskedAxpy(double[] coef, double[][] x, int ini, int end, double[] y);
+
+		void maskedAxpy(double[] coef, float[][] x, int ini, int end, double[] y);
+	}
+
+	// Plain Java loops, used when the Vector API is not available
+	static class ScalarVectorMath implements VectorMath {
+		@Override
+		public double dot(double[] a, double[] b) {
+			double sum = 0;
+			for(int i = 0; i < a.length; i++){
+				sum += a[i] * b[i];
+			}
+			return sum;
+		}
+
+		@Override
+		public double dot(float[] a, double[] b) {
+			double sum = 0;
+			for(int i = 0; i < a.length; i++){
+				sum += a[i] * b[i];
+			}
+			return sum;
+		}
+
+		@Override
+		public void axpy(double a, double[] x, double[] y) {
+			for (int i = 0; i < x.length; i++) {
+				y[i] += a * x[i];
+			}
+		}
+
+		@Override
+		public double dot(double[] a, int offset, double[] b, int length) {
+			double sum = 0;
+			for (int i = 0; i < length; i++) {
+				sum += a[offset + i] * b[i];
+			}
+			return sum;
+		}
+
+		@Override
+		public void axpy(double a, double[] x, int offset, double[] y, int length) {
+			for (int i = 0; i < length; i++) {
+				y[i] += a * x[offset + i];
+			}
+		}
+
+		@Override
+		public void maskedAxpy(double[] coef, double[][] x, int ini, int end, double[] y) {
+			for (int i = ini; i < end; i++) {
+				if (coef[i - ini] != 0.0) {
+					axpy(coef[i - ini], x[i], y);
+				}
+			}
+		}
+
+		@Override
+		public void maskedAxpy(double[] coef, float[][] x, int ini, int end, double[] y) {
+			for (int i = ini; i < end; i++) {
+				double a = coef[i - ini];
+				if (a != 0.0) {
+					float[] row = x[i];
+					for (int j = 0; j < row.length; j++) {
+						y[j] += a * row[j];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Vector kernels in use: SVMVectorMath (jdk.incubator.vector, needs
+	 * --add-modules jdk.incubator.vector) unless -Dsvm.vectorMath=scalar or the
+	 * module is not available.
+	 */
+	static final VectorMath VECTOR_MATH = loadVectorMath();
+
+	private static VectorMath loadVectorMath() {
+		if (!"scalar".equals(System.getProperty("svm.vectorMath"))) {
+			try {
+				return (VectorMath) Class.forName("SVMVectorMath").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				// not compiled: fall back to the scalar kernels
+			} catch (LinkageError e) {
+				// jdk.incubator.vector not in the module graph
+			}
+		}
+		return new ScalarVectorMath();
+	}
+
+	// float32 copy of the features, halving the memory (and bandwidth) of wide datasets
+	public static float[][] toFloat(double[][] xi) {
+		float[][] result = new float[xi.length][];
+		for (int i = 0; i < xi.length; i++) {
+			result[i] = new float[xi[i].length];
+			for (int j = 0; j < xi[i].length; j++) {
+				result[i][j] = (float) xi[i][j];
+			}
+		}
+		return result;
+	}
+
+	// Read-only row access shared by the dense, sparse and memory-mapped datasets
+	interface Dataset {
+		int rows();
+
+		int cols();
+
+		// dot product between row i and a dense vector
+		double dot(int i, double[] w);
+	}
+
+	// Dataset view of the double[][] rows returned by readAsVectors
+	static class DenseDataset implements Dataset {
+		private final double[][] xi;
+
+		public DenseDataset(double[][] xi) {
+			this.xi = xi;
+		}
+
+		@Override
+		public int rows() {
+			return xi.length;
+		}
+
+		@Override
+		public int cols() {
+			return xi.length == 0 ? 0 : xi[0].length;
+		}
+
+		@Override
+		public double dot(int i, double[] w) {
+			return SVM.dot(xi[i], w);
+		}
+	}
+
+	/**
+	 * Dense dataset in one flat row-major double[]: row i is
+	 * data[i * cols .. (i + 1) * cols). Consecutive rows are contiguous in
+	 * memory, instead of separate heap objects as in double[][].
+	 */
+	static class FlatDataset implements Dataset {
+		public final int rows;
+		public final int cols;
+		final double[] data;
+
+		public FlatDataset(int rows, int cols, double[] data) {
+			this.rows = rows;
+			this.cols = cols;
+			this.data = data;
+		}
+
+		public static FlatDataset fromRows(double[][] xi) {
+			int rows = xi.length;
+			int cols = xi[0].length;
+			double[] data = new double[rows * cols];
+			for (int i = 0; i < rows; i++) {
+				System.arraycopy(xi[i], 0, data, i * cols, cols);
+			}
+			return new FlatDataset(rows, cols, data);
+		}
+
+		@Override
+		public int rows() {
+			return rows;
+		}
+
+		@Override
+		public int cols() {
+			return cols;
+		}
+
+		int offset(int i) {
+			return i * cols;
+		}
+
+		@Override
+		public double dot(int i, double[] w) {
+			return VECTOR_MATH.dot(data, i * cols, w, cols);
+		}
+
+		/**
+		 * Moves row order[i] (and yi[order[i]]) to position i, in place: each
+		 * cycle of the permutation is followed with a single temporary row.
+		 */
+		public void permute(int[] order, double[] yi) {
+			boolean[] done = new boolean[rows];
+			double[] temp = new double[cols];
+			for (int start = 0; start < rows; start++) {
+				if (done[start])
+					continue;
+
+				System.arraycopy(data, start * cols, temp, 0, cols);
+				double tempY = yi[start];
+				int i = start;
+				while (order[i] != start) {
+					System.arraycopy(data, order[i] * cols, data, i * cols, cols);
+					yi[i] = yi[order[i]];
+					done[i] = true;
+					i = order[i];
+				}
+				System.arraycopy(temp, 0, data, i * cols, cols);
+				yi[i] = tempY;
+				done[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * Sparse dataset in compressed sparse row (CSR) format: the non-zeros of
+	 * row i are colIdx[p] / values[p] for p in [rowPtr[i], rowPtr[i + 1]).
+	 */
+	static class SparseDataset implements Dataset {
+		public final int rows;
+		public final int cols;
+		public final int[] rowPtr;
+		public final int[] colIdx;
+		public final double[] values;
+
+		public SparseDataset(int rows, int cols, int[] rowPtr, int[] colIdx, double[] values) {
+			this.rows = rows;
+			this.cols = cols;
+			this.rowPtr = rowPtr;
+			this.colIdx = colIdx;
+			this.values = values;
+		}
+
+		public int nonZeros() {
+			return rowPtr[rows];
+		}
+
+		@Override
+		public int rows() {
+			return rows;
+		}
+
+		@Override
+		public int cols() {
+			return cols;
+		}
+
+		@Override
+		public double dot(int i, double[] w) {
+			double sum = 0;
+			for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+				sum += values[p] * w[colIdx[p]];
+			}
+			return sum;
+		}
+
+		public static SparseDataset fromDense(double[][] xi) {
+			int rows = xi.length;
+			int cols = xi[0].length;
+			int nnz = 0;
+			for (double[] row : xi) {
+				for (double v : row) {
+					nnz += v != 0.0 ? 1 : 0;
+				}
+			}
+
+			int[] rowPtr = new int[rows + 1];
+			int[] colIdx = new int[nnz];
+			double[] values = new double[nnz];
+			int p = 0;
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					if (xi[i][j] != 0.0) {
+						colIdx[p] = j;
+						values[p] = xi[i][j];
+						p++;
+					}
+				}
+				rowPtr[i + 1] = p;
+			}
+
+			return new SparseDataset(rows, cols, rowPtr, colIdx, values);
+		}
+	}
+
+	/**
+	 * Dense weight vector stored as w = scale * v. Multiplying w by a constant
+	 * (the L2 regularization shrink) is O(1) and adding a sparse row only
+	 * touches its non-zeros; |v|^2 is maintained incrementally.
+	 */
+	static class ScaledVector {
+		private static final double MIN_SCALE = 1e-9;
+
+		private final double[] v;
+		private double scale = 1.0;
+		private double sqNorm = 0.0; // |v|^2
+
+		public ScaledVector(int d) {
+			this.v = new double[d];
+		}
+
+		public double dot(SparseDataset x, int i) {
+			return scale * x.dot(i, v);
+		}
+
+		// w = factor * w
+		public void scale(double factor) {
+			if (factor == 0.0) {
+				Arrays.fill(v, 0.0);
+				scale = 1.0;
+				sqNorm = 0.0;
+				return;
+			}
+
+			scale *= factor;
+			if (Math.abs(scale) < MIN_SCALE) { // fold the scale back into v before it underflows
+				for (int j = 0; j < v.length; j++) {
+					v[j] *= scale;
+				}
+				sqNorm *= scale * scale;
+				scale = 1.0;
+			}
+		}
+
+		// w = w + a * x_i
+		public void add(SparseDataset x, int i, double a) {
+			double f = a / scale;
+			for (int p = x.rowPtr[i]; p < x.rowPtr[i + 1]; p++) {
+				int j = x.colIdx[p];
+				double delta = f * x.values[p];
+				sqNorm += 2 * v[j] * delta + delta * delta;
+				v[j] += delta;
+			}
+		}
+
+		public double squaredNorm() {
+			return scale * scale * sqNorm;
+		}
+
+		public double[] toDense() {
+			double[] w = new double[v.length];
+			for (int j = 0; j < v.length; j++) {
+				w[j] = scale * v[j];
+			}
+			return w;
+		}
+	}
+
+	// read the features file (CSV or binary) straight into a FlatDataset
+	public FlatDataset readAsFlat(String filePath) throws IOException {
+		RowSource source = RowSource.open(filePath);
+		try {
+			int cols = source.cols;
+			double[] data = new double[Math.max(1, cols) * 1024];
+			double[] row = new double[cols];
+			int rows = 0;
+			while (source.next(row)) {
+				if ((rows + 1) * cols > data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				System.arraycopy(row, 0, data, rows * cols, cols);
+				rows++;
+			}
+			return new FlatDataset(rows, cols, Arrays.copyOf(data, rows * cols));
+		} finally {
+			source.close();
+		}
+	}
+
+	// read the features file keeping only the non-zero values (CSR)
+	public SparseDataset readAsSparse(String filePath) throws IOException {
+		int[] rowPtr = new int[1024];
+		int[] colIdx = new int[1024];
+		double[] values = new double[1024];
+		int rows = 0;
+		int cols = 0;
+		int nnz = 0;
+
+		FileReader fileReader = new FileReader(filePath);
+		BufferedReader br = new BufferedReader(fileReader);
+		String line;
+		while ((line = br.readLine()) != null) {
+			String[] data = line.split(",");
+			for (int j = 0; j < data.length; j++) {
+				double value = Double.valueOf(data[j]);
+				if (value != 0.0) {
+					if (nnz == values.length) {
+						colIdx = Arrays.copyOf(colIdx, nnz * 2);
+						values = Arrays.copyOf(values, nnz * 2);
+					}
+					colIdx[nnz] = j;
+					values[nnz] = value;
+					nnz++;
+				}
+			}
+			cols = Math.max(cols, data.length);
+
+			rows++;
+			if (rows == rowPtr.length) {
+				rowPtr = Arrays.copyOf(rowPtr, rows * 2);
+			}
+			rowPtr[rows] = nnz;
+		} br.close();
+
+		return new SparseDataset(rows, cols, Arrays.copyOf(rowPtr, rows + 1), Arrays.copyOf(colIdx, nnz),
+				Arrays.copyOf(values, nnz));
+	}
+
+	/**
+	 * Memory-mapped view of a binary dataset written by convertToBinary.
+	 * Layout: int magic, int version, int rows, int cols, int dtype and an
+	 * unused int (so the values start 8-byte aligned), followed by the
+	 * rows * cols values in row-major, little-endian order, as doubles
+	 * (DTYPE_FLOAT64) or floats (DTYPE_FLOAT32). The file is mapped in
+	 * segments of whole rows, since one mapping is limited to 2GB.
+	 */
+	static class MappedDataset implements Dataset {
+		static final int MAGIC = 0x53564D42; // "SVMB"
+		static final int VERSION = 2; // 1 had no dtype
+		static final int HEADER_BYTES = 24;
+		static final int DTYPE_FLOAT64 = 0;
+		static final int DTYPE_FLOAT32 = 1;
+		private static final long SEGMENT_BYTES = 1L << 30;
+
+		public final int rows;
+		public final int cols;
+		public final int dtype;
+		private final int rowsPerSegment;
+		private final DoubleBuffer[] segments; // DTYPE_FLOAT64, or null
+		private final FloatBuffer[] floatSegments; // DTYPE_FLOAT32, or null
+
+		private MappedDataset(int rows, int cols, int dtype, DoubleBuffer[] segments, FloatBuffer[] floatSegments,
+				int rowsPerSegment) {
+			this.rows = rows;
+			this.cols = cols;
+			this.dtype = dtype;
+			this.segments = segments;
+			this.floatSegments = floatSegments;
+			this.rowsPerSegment = rowsPerSegment;
+		}
+
+		// bytes of a value of the dtype
+		static int valueBytes(int dtype) {
+			return dtype == DTYPE_FLOAT32 ? 4 : 8;
+		}
+
+		public static MappedDataset open(String filePath) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(filePath, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(header, 0);
+				header.flip();
+				if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+					throw new IOException("Not a binary SVM dataset: " + filePath);
+				}
+				int rows = header.getInt();
+				int cols = header.getInt();
+				int dtype = header.getInt();
+				if (cols <= 0) {
+					throw new IOException("Binary SVM dataset without columns: " + filePath);
+				}
+				if (dtype != DTYPE_FLOAT64 && dtype != DTYPE_FLOAT32) {
+					throw new IOException("Unknown dtype " + dtype + " of binary SVM dataset: " + filePath);
+				}
+
+				long rowBytes = (long) cols * valueBytes(dtype);
+				int rowsPerSegment = (int) Math.max(1, Math.min(rows, SEGMENT_BYTES / rowBytes));
+				int segmentCount = rows == 0 ? 0 : (rows + rowsPerSegment - 1) / rowsPerSegment;
+				DoubleBuffer[] segments = dtype == DTYPE_FLOAT64 ? new DoubleBuffer[segmentCount] : null;
+				FloatBuffer[] floatSegments = dtype == DTYPE_FLOAT32 ? new FloatBuffer[segmentCount] : null;
+				for (int s = 0; s < segmentCount; s++) {
+					int segmentRows = Math.min(rowsPerSegment, rows - s * rowsPerSegment);
+					long offset = HEADER_BYTES + (long) s * rowsPerSegment * rowBytes;
+					ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, segmentRows * rowBytes)
+							.order(ByteOrder.LITTLE_ENDIAN);
+					if (segments != null) {
+						segments[s] = mapped.asDoubleBuffer();
+					} else {
+						floatSegments[s] = mapped.asFloatBuffer();
+					}
+				}
+
+				return new MappedDataset(rows, cols, dtype, segments, floatSegments, rowsPerSegment);
+			} finally {
+				file.close(); // the mappings stay valid after the channel is closed
+			}
+		}
+
+		@Override
+		public int rows() {
+			return rows;
+		}
+
+		@Override
+		public int cols() {
+			return cols;
+		}
+
+		public double get(int i, int j) {
+			int index = (i % rowsPerSegment) * cols + j;
+			if (segments == null)
+				return floatSegments[i / rowsPerSegment].get(index);
+
+			return segments[i / rowsPerSegment].get(index);
+		}
+
+		// copy row i into dst
+		public void row(int i, double[] dst) {
+			int base = (i % rowsPerSegment) * cols;
+			if (segments == null) {
+				FloatBuffer segment = floatSegments[i / rowsPerSegment];
+				for (int j = 0; j < cols; j++) {
+					dst[j] = segment.get(base + j);
+				}
+				return;
+			}
+
+			DoubleBuffer segment = segments[i / rowsPerSegment].duplicate(); // position is not shared between threads
+			segment.position(base);
+			segment.get(dst, 0, cols);
+		}
+
+		@Override
+		public double dot(int i, double[] w) {
+			int base = (i % rowsPerSegment) * cols;
+			double sum = 0;
+			if (segments == null) {
+				FloatBuffer segment = floatSegments[i / rowsPerSegment];
+				for (int j = 0; j < cols; j++) {
+					sum += segment.get(base + j) * w[j];
+				}
+				return sum;
+			}
+
+			DoubleBuffer segment = segments[i / rowsPerSegment];
+			for (int j = 0; j < cols; j++) {
+				sum += segment.get(base + j) * w[j];
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Converts a CSV file (features or target) to the binary format of
+	 * MappedDataset, so it is parsed only once.
+	 */
+	public void convertToBinary(String csvPath, String binaryPath) throws IOException {
+		convertToBinary(csvPath, binaryPath, false);
+	}
+
+	// same as convertToBinary, with the values stored as floats when float32 (half the size)
+	public void convertToBinary(String csvPath, String binaryPath, boolean float32) throws IOException {
+		int dtype = float32 ? MappedDataset.DTYPE_FLOAT32 : MappedDataset.DTYPE_FLOAT64;
+		BufferedReader br = new BufferedReader(new FileReader(csvPath), 1 << 16);
+		RandomAccessFile file = new RandomAccessFile(binaryPath, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			channel.position(MappedDataset.HEADER_BYTES);
+
+			int rows = 0;
+			int cols = -1;
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.length() == 0) // blank lines are skipped, as in readAsVectors
+					continue;
+
+				int count = 0;
+				int start = 0;
+				while (start <= line.length()) {
+					int comma = line.indexOf(',', start);
+					int stop = comma < 0 ? line.length() : comma;
+					if (buffer.remaining() < 8) {
+						buffer.flip();
+						channel.write(buffer);
+						buffer.clear();
+					}
+					double value = Double.parseDouble(line.substring(start, stop));
+					if (float32) {
+						buffer.putFloat((float) value);
+					} else {
+						buffer.putDouble(value);
+					}
+					count++;
+					start = stop + 1;
+				}
+
+				if (cols < 0) {
+					cols = count;
+				} else if (cols != count) {
+					throw new IOException("Line " + (rows + 1) + " has " + count + " values, expected " + cols);
+				}
+				rows++;
+			}
+			buffer.flip();
+			channel.write(buffer);
+
+			ByteBuffer header = ByteBuffer.allocate(MappedDataset.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MappedDataset.MAGIC).putInt(MappedDataset.VERSION).putInt(rows).putInt(Math.max(cols, 0))
+					.putInt(dtype).putInt(0);
+			header.flip();
+			channel.write(header, 0);
+		} finally {
+			br.close();
+			file.close();
+		}
+	}
+
+	// read a binary file with the same result as readAsVectors for its CSV
+	public double[][] readBinary(String filePath) throws IOException {
+		MappedDataset data = MappedDataset.open(filePath);
+
+		if (data.cols == 1) { // TARGET
+			double[][] finalResult = new double[1][data.rows];
+			for (int i = 0; i < data.rows; i++) {
+				finalResult[0][i] = data.get(i, 0);
+			}
+			return finalResult;
+		}
+
+		// FEATURES
+		double[][] finalResult = new double[data.rows][data.cols];
+		for (int i = 0; i < data.rows; i++) {
+			data.row(i, finalResult[i]);
+		}
+		return finalResult;
+	}
+
+	// read the input files (features and target)
+	public double[][] readAsVectors(String filePath) throws IOException {
+		if (filePath.endsWith(BINARY_EXTENSION)) {
+			return readBinary(filePath);
+		}
+
+		ArrayList<double[]> result = new ArrayList<double[]>();
+		FileReader fileReader = new FileReader(filePath);
+		BufferedReader br = new BufferedReader(fileReader);
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.length() == 0)
+				continue;
+
 			String[] data = line.split(",");
 			double[] lineData = new double[data.length];
 			for (int i = 0; i < data.length; i++) {
@@ -0,0 +1,388 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for the SVM kernels (dot, gradient, objective) and for the
+ * time to convergence of the training modes, over synthetic dense and
+ * sparse data. Run with -Dsvm.vectorMath=scalar to compare against the
+ * scalar kernels. Every measured call sees the same inputs: the benchmarks
+ * updating a vector start again from the same one every iteration, and the
+ * trainings, which shuffle their rows in place, get fresh row copies every
+ * invocation.
+ */
+public class SVMBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().include(SVMBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+	/**
+	 * Synthetic, linearly separable (up to label noise) data: labels are the
+	 * sign of a random hyperplane. density is the fraction of non-zero
+	 * features in each row.
+	 */
+	static class SyntheticData {
+		private static final double LABEL_NOISE = 0.05;
+
+		final double[][] xi;
+		final double[] yi;
+
+		SyntheticData(int n, int d, double density, long seed) {
+			Random rgen = new Random(seed);
+			double[] hyperplane = new double[d];
+			for (int j = 0; j < d; j++) {
+				hyperplane[j] = rgen.nextGaussian();
+			}
+
+			xi = new double[n][d];
+			yi = new double[n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < d; j++) {
+					if (density >= 1.0 || rgen.nextDouble() < density) {
+						xi[i][j] = rgen.nextGaussian();
+					}
+				}
+				yi[i] = SVM.dot(hyperplane, xi[i]) >= 0 ? 1 : -1;
+				if (rgen.nextDouble() < LABEL_NOISE) {
+					yi[i] = -yi[i];
+				}
+			}
+		}
+
+		SVM.SparseDataset sparse() {
+			return SVM.SparseDataset.fromDense(xi);
+		}
+	}
+
+	// KERNELS
+
+	@State(Scope.Benchmark)
+	public static class KernelState {
+		@Param({ "10000" })
+		public int n;
+
+		@Param({ "100", "1000" })
+		public int d;
+
+		@Param({ "1", "20", "1000" })
+		public int batchSize;
+
+		@Param({ "1.0", "0.01" })
+		public double density;
+
+		SyntheticData data;
+		float[][] float32;
+		SVM.FlatDataset flat;
+		int[] order;
+		SVM.SparseDataset sparse;
+		SVM.GradientEngine grad;
+		SVM.ScaledVector scaled; // updated by sparseUpdate
+		double[] w;
+		double[] y; // updated by axpy
+
+		@Setup(Level.Trial)
+		public void setup() {
+			data = new SyntheticData(n, d, density, 42);
+			float32 = SVM.toFloat(data.xi);
+			flat = SVM.FlatDataset.fromRows(data.xi);
+			order = new int[n];
+			Random shuffle = new Random(11);
+			for (int i = 0; i < n; i++) {
+				order[i] = i;
+			}
+			for (int i = n - 1; i > 0; i--) {
+				int j = shuffle.nextInt(i + 1);
+				int temp = order[i];
+				order[i] = order[j];
+				order[j] = temp;
+			}
+			sparse = data.sparse();
+			grad = new SVM.GradientEngine(d);
+			w = new double[d];
+			Random rgen = new Random(7);
+			for (int j = 0; j < d; j++) {
+				w[j] = rgen.nextGaussian() * 0.01;
+			}
+		}
+
+		@Setup(Level.Iteration)
+		public void resetUpdates() {
+			scaled = new SVM.ScaledVector(d);
+			y = w.clone();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double dot(KernelState s) {
+		return SVM.dot(s.data.xi[0], s.w);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double floatDot(KernelState s) {
+		return SVM.VECTOR_MATH.dot(s.float32[0], s.w);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double[] axpy(KernelState s) {
+		SVM.VECTOR_MATH.axpy(1e-9, s.data.xi[0], s.y);
+		return s.y;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double sparseDot(KernelState s) {
+		return s.sparse.dot(0, s.w);
+	}
+
+	// gradient of w and b over one mini batch (replaces the former gradW / gradB)
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double gradient(KernelState s) {
+		s.grad.compute(s.w, 0.1, s.data.xi, s.data.yi, 0, s.batchSize, 100);
+		return s.grad.gradB;
+	}
+
+	// sparse mini batch update of the scaled w
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double sparseUpdate(KernelState s) {
+		s.scaled.scale(1.0 - 0.0001);
+		for (int i = 0; i < s.batchSize; i++) {
+			if (s.data.yi[i] * (s.scaled.dot(s.sparse, i) + 0.1) < 1) {
+				s.scaled.add(s.sparse, i, 0.0001 * 100 * s.data.yi[i]);
+			}
+		}
+		return s.scaled.squaredNorm();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double floatGradient(KernelState s) {
+		s.grad.compute(s.w, 0.1, s.float32, s.data.yi, 0, s.batchSize, 100);
+		return s.grad.gradB;
+	}
+
+	// mini batch gradient over the contiguous rows, read in order
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double flatGradient(KernelState s) {
+		s.grad.compute(s.w, 0.1, s.flat, null, s.data.yi, 0, s.batchSize, 100);
+		return s.grad.gradB;
+	}
+
+	// mini batch gradient over the contiguous rows, through a shuffled permutation index
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double flatIndexedGradient(KernelState s) {
+		s.grad.compute(s.w, 0.1, s.flat, s.order, s.data.yi, 0, s.batchSize, 100);
+		return s.grad.gradB;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public double calcFk(KernelState s) {
+		return SVM.calcFk(s.w, 0.1, s.data.xi, s.data.yi, 100);
+	}
+
+	// TIME TO CONVERGENCE
+
+	@State(Scope.Benchmark)
+	public static class TrainingState {
+		@Param({ "5000" })
+		public int n;
+
+		@Param({ "50", "500" })
+		public int d;
+
+		@Param({ "1.0", "0.01" })
+		public double density;
+
+		@Param({ "false", "true" })
+		public boolean telemetry; // console progress reports, rate limited
+
+		SVM svm = new SVM();
+		SyntheticData data;
+		SVM.SparseDataset sparse;
+		double[][] xi; // copy of the rows of data, shuffled by the training
+		double[] yi;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			data = new SyntheticData(n, d, density, 42);
+			sparse = data.sparse();
+		}
+
+		@Setup(Level.Invocation)
+		public void copyRows() {
+			xi = data.xi.clone();
+			yi = data.yi.clone();
+		}
+
+		SVM.SVMParameter parameter(int batchSize, double eta, double eps) {
+			SVM.SVMParameter svmParam = new SVM.SVMParameter(batchSize, eta, eps, 100);
+			if (!telemetry) {
+				svmParam.listener = null;
+			}
+			return svmParam;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public SVM.SVMResult batch(TrainingState s) {
+		return s.svm.batchGradient(s.xi, s.yi, s.parameter(1, 0.0000003, 0.25));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public SVM.SVMResult sgd(TrainingState s) {
+		return s.svm.miniBatchGradDesc(s.xi, s.yi, s.parameter(1, 0.0001, 0.001));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public SVM.SVMResult miniBatch(TrainingState s) {
+		return s.svm.miniBatchGradDesc(s.xi, s.yi, s.parameter(20, 0.00001, 0.01));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public SVM.SVMResult sparseMiniBatch(TrainingState s) {
+		return s.svm.miniBatchGradDesc(s.sparse, s.yi, s.parameter(20, 0.00001, 0.01));
+	}
+
+	// STEP SCHEDULES: time to reach the objective of the constant eta baseline
+
+	@State(Scope.Benchmark)
+	public static class ScheduleState {
+		private static final double ADAGRAD_ETA = 0.5;
+
+		@Param({ "5000" })
+		public int n;
+
+		@Param({ "50", "500" })
+		public int d;
+
+		@Param({ "CONSTANT", "PEGASOS", "ADAGRAD" })
+		public SVM.StepSchedule schedule;
+
+		@Param({ "false", "true" })
+		public boolean averaging;
+
+		SVM svm = new SVM();
+		SyntheticData data;
+		double targetFk;
+		double[][] xi; // copy of the rows of data, shuffled by the training
+		double[] yi;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			data = new SyntheticData(n, d, 1.0, 42);
+			SVM.SVMResult baseline = svm.miniBatchGradDesc(data.xi.clone(), data.yi.clone(), new SVM.SVMParameter(20, 0.00001, 0.01, 100));
+			targetFk = SVM.calcFk(baseline.w, baseline.b, data.xi, data.yi, 100);
+		}
+
+		@Setup(Level.Invocation)
+		public void copyRows() {
+			xi = data.xi.clone();
+			yi = data.yi.clone();
+		}
+
+		SVM.SVMParameter parameter() {
+			SVM.SVMParameter svmParam = new SVM.SVMParameter(20, 0.00001, 0, 100);
+			svmParam.schedule = schedule;
+			svmParam.adagradEta = ADAGRAD_ETA;
+			svmParam.averaging = averaging;
+			svmParam.targetFk = targetFk;
+			svmParam.maxIterations = 1000000; // a schedule that never reaches the target still ends
+			svmParam.listener = null;
+			return svmParam;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public SVM.SVMResult timeToTarget(ScheduleState s) {
+		return s.svm.miniBatchGradDesc(s.xi, s.yi, s.parameter());
+	}
+}
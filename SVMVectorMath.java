@@ -0,0 +1,220 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels for the SVM training using the Vector API (jdk.incubator.vector).
+ * Compile and run with --add-modules jdk.incubator.vector; SVM falls back to
+ * its scalar kernels when this class can not be loaded.
+ */
+public class SVMVectorMath implements SVM.VectorMath {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	// floats with as many lanes as SPECIES, converted to doubles lane by lane
+	private static final VectorSpecies<Float> FLOAT_SPECIES = VectorSpecies.of(float.class,
+			VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+	@Override
+	public double dot(double[] a, double[] b) {
+		int i = 0;
+		int upper = SPECIES.loopBound(a.length);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		for (; i < upper; i += SPECIES.length()) {
+			acc = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), acc);
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a, double[] b) {
+		int i = 0;
+		int upper = SPECIES.loopBound(a.length);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		for (; i < upper; i += SPECIES.length()) {
+			acc = toDouble(a, i).fma(DoubleVector.fromArray(SPECIES, b, i), acc);
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public void axpy(double a, double[] x, double[] y) {
+		int i = 0;
+		int upper = SPECIES.loopBound(x.length);
+		DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, x, i).fma(va, DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+		}
+
+		for (; i < x.length; i++) {
+			y[i] += a * x[i];
+		}
+	}
+
+	@Override
+	public double dot(double[] a, int offset, double[] b, int length) {
+		int i = 0;
+		int upper = SPECIES.loopBound(length);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		for (; i < upper; i += SPECIES.length()) {
+			acc = DoubleVector.fromArray(SPECIES, a, offset + i).fma(DoubleVector.fromArray(SPECIES, b, i), acc);
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += a[offset + i] * b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public void axpy(double a, double[] x, int offset, double[] y, int length) {
+		int i = 0;
+		int upper = SPECIES.loopBound(length);
+		DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, x, offset + i).fma(va, DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+		}
+
+		for (; i < length; i++) {
+			y[i] += a * x[offset + i];
+		}
+	}
+
+	/**
+	 * The rows with a non-zero coefficient are added four at a time (axpy4),
+	 * so y is loaded and stored once per group instead of once per row.
+	 * The pending rows of a group are kept in locals (r0 .. r2), as this
+	 * instance is shared by the training threads and must not allocate.
+	 */
+	@Override
+	public void maskedAxpy(double[] coef, double[][] x, int ini, int end, double[] y) {
+		int pending = 0;
+		int r0 = 0, r1 = 0, r2 = 0;
+		for (int i = ini; i < end; i++) {
+			if (coef[i - ini] == 0.0)
+				continue;
+
+			if (pending == 0) {
+				r0 = i;
+			} else if (pending == 1) {
+				r1 = i;
+			} else if (pending == 2) {
+				r2 = i;
+			} else {
+				axpy4(coef[r0 - ini], x[r0], coef[r1 - ini], x[r1], coef[r2 - ini], x[r2], coef[i - ini], x[i], y);
+				pending = 0;
+				continue;
+			}
+			pending++;
+		}
+
+		if (pending > 0) axpy(coef[r0 - ini], x[r0], y);
+		if (pending > 1) axpy(coef[r1 - ini], x[r1], y);
+		if (pending > 2) axpy(coef[r2 - ini], x[r2], y);
+	}
+
+	// same grouping as maskedAxpy(double[], double[][], ...), converting the float rows lane by lane
+	@Override
+	public void maskedAxpy(double[] coef, float[][] x, int ini, int end, double[] y) {
+		int pending = 0;
+		int r0 = 0, r1 = 0, r2 = 0;
+		for (int i = ini; i < end; i++) {
+			if (coef[i - ini] == 0.0)
+				continue;
+
+			if (pending == 0) {
+				r0 = i;
+			} else if (pending == 1) {
+				r1 = i;
+			} else if (pending == 2) {
+				r2 = i;
+			} else {
+				axpy4(coef[r0 - ini], x[r0], coef[r1 - ini], x[r1], coef[r2 - ini], x[r2], coef[i - ini], x[i], y);
+				pending = 0;
+				continue;
+			}
+			pending++;
+		}
+
+		if (pending > 0) axpy(coef[r0 - ini], x[r0], y);
+		if (pending > 1) axpy(coef[r1 - ini], x[r1], y);
+		if (pending > 2) axpy(coef[r2 - ini], x[r2], y);
+	}
+
+	// y += a * x, x in float32
+	private void axpy(double a, float[] x, double[] y) {
+		int i = 0;
+		int upper = SPECIES.loopBound(x.length);
+		DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+		for (; i < upper; i += SPECIES.length()) {
+			toDouble(x, i).fma(va, DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+		}
+
+		for (; i < x.length; i++) {
+			y[i] += a * x[i];
+		}
+	}
+
+	// y += a0 * x0 + a1 * x1 + a2 * x2 + a3 * x3
+	private void axpy4(double a0, double[] x0, double a1, double[] x1, double a2, double[] x2, double a3, double[] x3,
+			double[] y) {
+		int length = x0.length;
+		int i = 0;
+		int upper = SPECIES.loopBound(length);
+		DoubleVector v0 = DoubleVector.broadcast(SPECIES, a0);
+		DoubleVector v1 = DoubleVector.broadcast(SPECIES, a1);
+		DoubleVector v2 = DoubleVector.broadcast(SPECIES, a2);
+		DoubleVector v3 = DoubleVector.broadcast(SPECIES, a3);
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, y, i);
+			acc = DoubleVector.fromArray(SPECIES, x0, i).fma(v0, acc);
+			acc = DoubleVector.fromArray(SPECIES, x1, i).fma(v1, acc);
+			acc = DoubleVector.fromArray(SPECIES, x2, i).fma(v2, acc);
+			acc = DoubleVector.fromArray(SPECIES, x3, i).fma(v3, acc);
+			acc.intoArray(y, i);
+		}
+
+		for (; i < length; i++) {
+			y[i] += a0 * x0[i] + a1 * x1[i] + a2 * x2[i] + a3 * x3[i];
+		}
+	}
+
+	// same as axpy4 with float32 rows
+	private void axpy4(double a0, float[] x0, double a1, float[] x1, double a2, float[] x2, double a3, float[] x3,
+			double[] y) {
+		int length = x0.length;
+		int i = 0;
+		int upper = SPECIES.loopBound(length);
+		DoubleVector v0 = DoubleVector.broadcast(SPECIES, a0);
+		DoubleVector v1 = DoubleVector.broadcast(SPECIES, a1);
+		DoubleVector v2 = DoubleVector.broadcast(SPECIES, a2);
+		DoubleVector v3 = DoubleVector.broadcast(SPECIES, a3);
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, y, i);
+			acc = toDouble(x0, i).fma(v0, acc);
+			acc = toDouble(x1, i).fma(v1, acc);
+			acc = toDouble(x2, i).fma(v2, acc);
+			acc = toDouble(x3, i).fma(v3, acc);
+			acc.intoArray(y, i);
+		}
+
+		for (; i < length; i++) {
+			y[i] += a0 * x0[i] + a1 * x1[i] + a2 * x2[i] + a3 * x3[i];
+		}
+	}
+
+	private static DoubleVector toDouble(float[] a, int offset) {
+		return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, a, offset).convertShape(VectorOperators.F2D, SPECIES, 0);
+	}
+}